@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey;
+
+/**
+ * Words often found inside passwords, ordered from the most to the least
+ * common, so the rank of a word is about the number of guesses an attacker
+ * needs to try it. {@link PasswordStrength} looks for them in any part of a
+ * password, also with l33t substitutions and upper case letters.
+ *
+ * @author Tobias Briones
+ * @see PasswordStrength
+ */
+public final class CommonWordsDictionary {
+    public static final String[] RANKED_LOWER_CASE_WORDS = {
+        "password", "pass", "qwerty", "love", "admin", "welcome", "dragon",
+        "monkey", "letmein", "login", "master", "hello", "freedom", "whatever",
+        "shadow", "sunshine", "princess", "football", "baseball", "soccer",
+        "hockey", "batman", "superman", "trustno1", "iloveyou", "starwars",
+        "secret", "abc", "test", "user", "guest", "root", "access", "default",
+        "changeme", "computer", "internet", "summer", "winter", "spring",
+        "autumn", "flower", "michael", "jennifer", "jordan", "michelle",
+        "daniel", "jessica", "ashley", "charlie", "robert", "thomas", "andrew",
+        "joshua", "matthew", "anthony", "william", "david", "maria", "george",
+        "nicole", "hunter", "tigger", "buster", "ginger", "pepper", "killer",
+        "cookie", "cheese", "chocolate", "orange", "banana", "apple", "purple",
+        "yellow", "silver", "golden", "diamond", "angel", "angels", "lover",
+        "loveme", "family", "friends", "forever", "heaven", "jesus", "god",
+        "blessed", "happy", "lucky", "money", "power", "magic", "matrix",
+        "ninja", "pokemon", "mustang", "ferrari", "porsche", "harley",
+        "yankees", "cowboys", "eagles", "lakers", "liverpool", "arsenal",
+        "chelsea", "barcelona", "madrid", "london", "paris", "berlin",
+        "america", "canada", "mexico", "tobias", "samsung", "google",
+        "microsoft", "windows", "linux", "android", "iphone", "facebook",
+        "twitter", "youtube", "amazon", "netflix", "server", "system",
+        "office", "company", "business", "student", "school", "teacher",
+        "doctor", "music", "guitar", "piano", "rock", "metal", "dance",
+        "party", "beach", "ocean", "river", "mountain", "forest", "nature",
+        "earth", "world", "planet", "space", "star", "stars", "moon", "sun",
+        "light", "dark", "night", "midnight", "morning", "day", "time",
+        "life", "live", "dream", "hope", "peace", "fire", "water", "wind",
+        "storm", "thunder", "lightning", "tiger", "lion", "wolf", "bear",
+        "eagle", "falcon", "phoenix", "snake", "cobra", "shark", "dolphin",
+        "horse", "puppy", "kitty", "kitten", "bunny", "baby", "honey", "sweet",
+        "sugar", "candy", "pizza", "coffee", "beer", "whiskey", "red", "blue",
+        "green", "black", "white", "pink", "king", "queen", "prince", "lord",
+        "boss", "hero", "legend", "warrior", "soldier", "knight", "wizard",
+        "ghost", "devil", "demon", "hell", "death", "blood", "sword", "gun",
+        "car", "home", "house", "door", "key", "lock", "safe", "open", "start",
+        "enter", "change", "new", "old", "my", "your", "one", "two", "three",
+        "first", "last", "best", "good", "great", "super", "mega", "ultra",
+        "hack", "hacker", "code", "coder", "java", "python", "data", "owner",
+        "private", "public", "account", "bank", "card", "mail", "email",
+        "phone", "mobile", "work", "game", "games", "gamer", "player", "play",
+        "win", "winner", "fun", "cool", "crazy", "sexy", "hot", "girl", "boy",
+        "man", "woman", "mother", "father", "mom", "dad", "sister", "brother",
+        "friend", "qwertz", "azerty", "asdf", "zxcv"
+    };
+
+    private CommonWordsDictionary() {}
+}
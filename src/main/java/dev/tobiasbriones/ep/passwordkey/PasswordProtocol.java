@@ -12,6 +12,8 @@
 
 package dev.tobiasbriones.ep.passwordkey;
 
+import dev.tobiasbriones.ep.passwordkey.simd.TextScan;
+
 import static dev.tobiasbriones.ep.passwordkey.WeakPasswordsDictionary.WEAK_LOWER_CASE_USUAL_PASSWORDS;
 import static dev.tobiasbriones.ep.passwordkey.WeakPasswordsDictionary.WEAK_PASSWORD_MAX_LENGTH;
 
@@ -20,11 +22,14 @@ import static dev.tobiasbriones.ep.passwordkey.WeakPasswordsDictionary.WEAK_PASS
  * No acceptable, Acceptable and Good.<br> A password is acceptable if:<br> -
  * Its length is not less than 8<br> - It's not in the list of weak
  * passwords<br> - It does not contain more than 40% consecutively repeated
- * characters<br> A password is good if:<br> - It's acceptable<br> - Its length
- * is not less than 16<br>
+ * characters<br> A password is good if:<br> - It's acceptable<br> - It takes
+ * at least 10^10 guesses to an attacker that knows the usual patterns like
+ * words, keyboard walks, sequences, repeats and dates, see {@link
+ * PasswordStrength}<br>
  *
  * @author Tobias Briones
  * @see WeakPasswordsDictionary
+ * @see PasswordStrength
  */
 public final class PasswordProtocol {
     public static final int MIN_PASSWORD_LENGTH = 8;
@@ -64,20 +69,13 @@ public final class PasswordProtocol {
                 }
             }
         }
-        // Check if contains much consecutive repeated characters
-        for (char c : lowerCasePasswordArray) {
-            if (c == previousChar) {
-                repetition += characterRepetitionFactor;
-            }
-            else {
-                repetition = characterRepetitionFactor;
-            }
-            if (repetition > MAX_CONSECUTIVE_CHARACTER_REPETITION_FACTOR) {
-                return false;
-            }
-            previousChar = c;
+        // Check if contains much consecutive repeated characters, the
+        // repetition is accumulated over the longest run as it was per char
+        final int longestRun = TextScan.longestRun(lowerCasePasswordArray, previousChar);
+        for (int i = 1; i < longestRun; i++) {
+            repetition += characterRepetitionFactor;
         }
-        return true;
+        return repetition <= MAX_CONSECUTIVE_CHARACTER_REPETITION_FACTOR;
     }
 
     /**
@@ -102,6 +100,19 @@ public final class PasswordProtocol {
         return PasswordQuality.ACCEPTABLE;
     }
 
+    /**
+     * @param password Password to check.
+     *
+     * @return the estimated strength of the password, its quality is the same
+     * given by {@link #getPasswordQuality(String)}.
+     */
+    public static PasswordStrength getPasswordStrength(String password) {
+        if (password == null) {
+            throw new NullPointerException();
+        }
+        return PasswordStrengthEstimator.estimate(password, isAcceptedPassword(password));
+    }
+
     /**
      * @param password Password to check.
      *
@@ -116,7 +127,8 @@ public final class PasswordProtocol {
     }
 
     private static boolean hasGoodProperties(String password) {
-        return password.length() >= GOOD_PASSWORD_LENGTH;
+        return PasswordStrengthEstimator.estimate(password, true).getScore()
+               == PasswordStrength.MAX_SCORE;
     }
 
     private PasswordProtocol() {}
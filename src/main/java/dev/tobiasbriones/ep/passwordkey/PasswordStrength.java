@@ -0,0 +1,120 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey;
+
+import dev.tobiasbriones.ep.passwordkey.PasswordProtocol.PasswordQuality;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Estimated strength of a password as the number of guesses an attacker who
+ * knows the usual patterns needs to find it: common words (also with l33t
+ * substitutions and upper case letters), keyboard walks, sequences, repeated
+ * characters or blocks and dates. The password is split into the patterns
+ * and random parts that are the cheapest to guess all together.<br> The score
+ * goes from 0, found in less than 10^3 guesses, to 4, 10^10 guesses or more.
+ *
+ * @author Tobias Briones
+ * @see PasswordProtocol#getPasswordStrength(String)
+ */
+public final class PasswordStrength {
+    /**
+     * Score of a password that takes at least 10^10 guesses.
+     */
+    public static final int MAX_SCORE = 4;
+
+    /**
+     * Patterns that make a password easier to guess.
+     */
+    public enum Pattern {
+        DICTIONARY_WORD, KEYBOARD_WALK, SEQUENCE, REPEAT, DATE
+    }
+
+    private final double entropyBits;
+    private final Set<Pattern> patterns;
+    private final boolean accepted;
+
+    PasswordStrength(double entropyBits, Set<Pattern> patterns, boolean accepted) {
+        this.entropyBits = entropyBits;
+        this.patterns = Collections.unmodifiableSet(patterns);
+        this.accepted = accepted;
+    }
+
+    /**
+     * @return the base 2 logarithm of the estimated number of guesses.
+     */
+    public double getEntropyBits() {
+        return entropyBits;
+    }
+
+    /**
+     * @return the base 10 logarithm of the estimated number of guesses.
+     */
+    public double getGuessesLog10() {
+        return entropyBits * Math.log10(2);
+    }
+
+    /**
+     * @return the score from 0 to {@link #MAX_SCORE}, each step is 2 or 3
+     * orders of magnitude more guesses.
+     */
+    public int getScore() {
+        final double guessesLog10 = getGuessesLog10();
+        if (guessesLog10 < 3) {
+            return 0;
+        }
+        if (guessesLog10 < 6) {
+            return 1;
+        }
+        if (guessesLog10 < 8) {
+            return 2;
+        }
+        if (guessesLog10 < 10) {
+            return 3;
+        }
+        return MAX_SCORE;
+    }
+
+    /**
+     * @return the patterns found in the cheapest way to guess the password.
+     */
+    public Set<Pattern> getPatterns() {
+        return patterns;
+    }
+
+    /**
+     * @return {@link PasswordQuality#UNACCEPTABLE} if the password is
+     * rejected by {@link PasswordProtocol#isAcceptedPassword(String)}<br>
+     * {@link PasswordQuality#GOOD} if it is accepted and has the maximum
+     * score<br> {@link PasswordQuality#ACCEPTABLE} otherwise.
+     */
+    public PasswordQuality getQuality() {
+        if (!accepted) {
+            return PasswordQuality.UNACCEPTABLE;
+        }
+        if (getScore() == MAX_SCORE) {
+            return PasswordQuality.GOOD;
+        }
+        return PasswordQuality.ACCEPTABLE;
+    }
+
+    @Override
+    public String toString() {
+        return "PasswordStrength{"
+               + "score=" + getScore()
+               + ", entropyBits=" + entropyBits
+               + ", patterns=" + patterns
+               + '}';
+    }
+}
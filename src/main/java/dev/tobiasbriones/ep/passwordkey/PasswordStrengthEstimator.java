@@ -0,0 +1,602 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey;
+
+import dev.tobiasbriones.ep.passwordkey.PasswordStrength.Pattern;
+
+import java.util.Calendar;
+import java.util.EnumSet;
+import java.util.Set;
+
+import static dev.tobiasbriones.ep.passwordkey.CommonWordsDictionary.RANKED_LOWER_CASE_WORDS;
+import static dev.tobiasbriones.ep.passwordkey.WeakPasswordsDictionary.WEAK_LOWER_CASE_USUAL_PASSWORDS;
+
+/**
+ * Estimates the guesses of a password in the way of zxcvbn.<br> Every
+ * pattern that starts at a position is matched right there: the words with a
+ * walk down a trie, the keyboard walks with a precomputed table of adjacent
+ * keys, and the sequences, repeats and dates by scanning the characters.
+ * Each match relaxes the cheapest guesses of the prefix it ends, so the
+ * cheapest split of the password is found in the same pass, without
+ * allocating the matches.
+ *
+ * @author Tobias Briones
+ * @see PasswordStrength
+ */
+final class PasswordStrengthEstimator {
+    // Passwords are analyzed up to this length, the rest is guessed at random
+    private static final int MAX_ANALYZED_LENGTH = 64;
+    private static final int MIN_PATTERN_LENGTH = 3;
+    private static final int MAX_SEQUENCE_DELTA = 5;
+    private static final int MIN_YEAR_SPACE = 20;
+    private static final double DAYS_PER_YEAR = 365;
+    private static final int REFERENCE_YEAR = Calendar.getInstance().get(Calendar.YEAR);
+    private static final double MATCH_PENALTY_BITS = 1;
+    private static final int TRIE_ALPHABET = 36;
+    private static final int[] TRIE_CHILDREN;
+    private static final int[] TRIE_RANKS;
+    private static final String[] KEYBOARD_ROWS = {
+        "`1234567890-=", "qwertyuiop[]\\", "asdfghjkl;'", "zxcvbnm,./"
+    };
+    private static final String[] SHIFTED_KEYBOARD_ROWS = {
+        "~!@#$%^&*()_+", "QWERTYUIOP{}|", "ASDFGHJKL:\"", "ZXCVBNM<>?"
+    };
+    // Horizontal position of the first key of every row in quarters of a key
+    private static final int[] KEYBOARD_ROW_OFFSETS = { 0, 6, 7, 9 };
+    private static final byte[] KEYS = new byte[128];
+    private static final boolean[] SHIFTED = new boolean[128];
+    private static final int KEY_COUNT;
+    private static final byte[] KEY_DIRECTIONS;
+    private static final double KEYBOARD_AVERAGE_DEGREE;
+    private static final char[][] L33T_LETTERS = new char[128][];
+
+    static {
+        int nodes = 1;
+        int maxNodes = 1;
+        for (String word : WEAK_LOWER_CASE_USUAL_PASSWORDS) {
+            maxNodes += word.length();
+        }
+        for (String word : RANKED_LOWER_CASE_WORDS) {
+            maxNodes += word.length();
+        }
+        TRIE_CHILDREN = new int[maxNodes * TRIE_ALPHABET];
+        TRIE_RANKS = new int[maxNodes];
+        // The usual passwords are guessed first, then the words
+        int rank = 1;
+        for (String word : WEAK_LOWER_CASE_USUAL_PASSWORDS) {
+            nodes = insert(word, rank++, nodes);
+        }
+        for (String word : RANKED_LOWER_CASE_WORDS) {
+            nodes = insert(word, rank++, nodes);
+        }
+    }
+
+    static {
+        final int[] rows = new int[128];
+        final int[] positions = new int[128];
+        int keyCount = 0;
+        int adjacencies = 0;
+        for (int i = 0; i < KEYS.length; i++) {
+            KEYS[i] = -1;
+        }
+        for (int row = 0; row < KEYBOARD_ROWS.length; row++) {
+            for (int column = 0; column < KEYBOARD_ROWS[row].length(); column++) {
+                final char key = KEYBOARD_ROWS[row].charAt(column);
+                final char shifted = SHIFTED_KEYBOARD_ROWS[row].charAt(column);
+                KEYS[key] = (byte) keyCount;
+                KEYS[shifted] = (byte) keyCount;
+                SHIFTED[shifted] = true;
+                rows[keyCount] = row;
+                positions[keyCount] = KEYBOARD_ROW_OFFSETS[row] + 4 * column;
+                keyCount++;
+            }
+        }
+        KEY_COUNT = keyCount;
+        KEY_DIRECTIONS = new byte[keyCount * keyCount];
+        for (int a = 0; a < keyCount; a++) {
+            for (int b = 0; b < keyCount; b++) {
+                final int dy = rows[b] - rows[a];
+                final int dx = positions[b] - positions[a];
+                if (a == b || Math.abs(dy) > 1 || Math.abs(dx) > 4) {
+                    continue;
+                }
+                // 1 and 2 are left and right, 3 and 4 up, 5 and 6 down
+                KEY_DIRECTIONS[a * keyCount + b] = (byte) (
+                    (dy == 0) ? ((dx < 0) ? 1 : 2) : (dy < 0 ? 3 : 5) + ((dx < 0) ? 0 : 1)
+                );
+                adjacencies++;
+            }
+        }
+        KEYBOARD_AVERAGE_DEGREE = adjacencies / (double) keyCount;
+        addL33t('4', 'a');
+        addL33t('@', 'a');
+        addL33t('8', 'b');
+        addL33t('(', 'c');
+        addL33t('{', 'c');
+        addL33t('[', 'c');
+        addL33t('<', 'c');
+        addL33t('3', 'e');
+        addL33t('6', 'g');
+        addL33t('9', 'g');
+        addL33t('1', 'i');
+        addL33t('1', 'l');
+        addL33t('!', 'i');
+        addL33t('|', 'i');
+        addL33t('|', 'l');
+        addL33t('0', 'o');
+        addL33t('$', 's');
+        addL33t('5', 's');
+        addL33t('7', 't');
+        addL33t('+', 't');
+        addL33t('%', 'x');
+        addL33t('2', 'z');
+    }
+
+    private static int insert(String word, int rank, int nodes) {
+        int node = 0;
+        for (int i = 0; i < word.length(); i++) {
+            final int child = node * TRIE_ALPHABET + symbolOf(word.charAt(i));
+            if (TRIE_CHILDREN[child] == 0) {
+                TRIE_CHILDREN[child] = nodes++;
+            }
+            node = TRIE_CHILDREN[child];
+        }
+        if (TRIE_RANKS[node] == 0) {
+            TRIE_RANKS[node] = rank;
+        }
+        return nodes;
+    }
+
+    private static void addL33t(char symbol, char letter) {
+        final char[] letters = L33T_LETTERS[symbol];
+        if (letters == null) {
+            L33T_LETTERS[symbol] = new char[] { letter };
+        }
+        else {
+            final char[] more = new char[letters.length + 1];
+            System.arraycopy(letters, 0, more, 0, letters.length);
+            more[letters.length] = letter;
+            L33T_LETTERS[symbol] = more;
+        }
+    }
+
+    /**
+     * @return the index of a lower case letter or digit in the trie, or -1.
+     */
+    private static int symbolOf(char c) {
+        if (c >= 'a' && c <= 'z') {
+            return c - 'a';
+        }
+        if (c >= '0' && c <= '9') {
+            return 26 + c - '0';
+        }
+        return -1;
+    }
+
+    static PasswordStrength estimate(String password, boolean accepted) {
+        final Set<Pattern> patterns = EnumSet.noneOf(Pattern.class);
+        final double bits = new PasswordStrengthEstimator(password, true).estimate(patterns);
+        return new PasswordStrength(bits, patterns, accepted);
+    }
+
+    private final char[] chars;
+    private final int length;
+    private final double bruteForceBits;
+    private final double[] bits;
+    private final int[] from;
+    private final Pattern[] patterns;
+    private final int[] upperCaseCounts;
+    private final int[] lowerCaseCounts;
+    private final boolean matchesBlockRepeats;
+
+    private PasswordStrengthEstimator(String password, boolean matchesBlockRepeats) {
+        this.chars = password.toCharArray();
+        this.length = Math.min(chars.length, MAX_ANALYZED_LENGTH);
+        this.bruteForceBits = log2(cardinalityOf(chars));
+        this.bits = new double[length + 1];
+        this.from = new int[length + 1];
+        this.patterns = new Pattern[length + 1];
+        this.upperCaseCounts = new int[length + 1];
+        this.lowerCaseCounts = new int[length + 1];
+        for (int i = 0; i < length; i++) {
+            final char c = chars[i];
+            upperCaseCounts[i + 1] = upperCaseCounts[i] + ((c >= 'A' && c <= 'Z') ? 1 : 0);
+            lowerCaseCounts[i + 1] = lowerCaseCounts[i] + ((c >= 'a' && c <= 'z') ? 1 : 0);
+            bits[i + 1] = Double.POSITIVE_INFINITY;
+        }
+        this.matchesBlockRepeats = matchesBlockRepeats;
+    }
+
+    private double estimate(Set<Pattern> found) {
+        for (int i = 0; i < length; i++) {
+            relax(i, i + 1, bruteForceBits, null);
+            matchWords(i, i, 0, 0);
+            matchKeyboardWalks(i);
+            matchSequences(i);
+            matchRepeats(i);
+            matchDates(i);
+        }
+        for (int end = length; end > 0; end = from[end]) {
+            if (patterns[end] != null) {
+                found.add(patterns[end]);
+            }
+        }
+        return bits[length] + (chars.length - length) * bruteForceBits;
+    }
+
+    private void relax(int start, int end, double matchBits, Pattern pattern) {
+        final double total = bits[start] + matchBits
+                             + ((pattern == null) ? 0 : MATCH_PENALTY_BITS);
+        if (total < bits[end]) {
+            bits[end] = total;
+            from[end] = start;
+            patterns[end] = pattern;
+        }
+    }
+
+    private void matchWords(int start, int position, int node, int substitutions) {
+        if (position == length) {
+            return;
+        }
+        final char c = chars[position];
+        final char lowerCase = (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+        final int symbol = symbolOf(lowerCase);
+        if (symbol != -1) {
+            matchWord(start, position, TRIE_CHILDREN[node * TRIE_ALPHABET + symbol], substitutions);
+        }
+        if (c < L33T_LETTERS.length && L33T_LETTERS[c] != null) {
+            for (char letter : L33T_LETTERS[c]) {
+                matchWord(
+                    start,
+                    position,
+                    TRIE_CHILDREN[node * TRIE_ALPHABET + symbolOf(letter)],
+                    substitutions + 1
+                );
+            }
+        }
+    }
+
+    private void matchWord(int start, int position, int node, int substitutions) {
+        final int end = position + 1;
+        if (node == 0) {
+            return;
+        }
+        if (TRIE_RANKS[node] != 0 && end - start >= MIN_PATTERN_LENGTH) {
+            relax(
+                start,
+                end,
+                log2(TRIE_RANKS[node]) + upperCaseVariationBits(start, end) + substitutions,
+                Pattern.DICTIONARY_WORD
+            );
+        }
+        matchWords(start, end, node, substitutions);
+    }
+
+    private double upperCaseVariationBits(int start, int end) {
+        final int upperCase = upperCaseCounts[end] - upperCaseCounts[start];
+        final int lowerCase = lowerCaseCounts[end] - lowerCaseCounts[start];
+        double variations = 0;
+        if (upperCase == 0) {
+            return 0;
+        }
+        // Capitalized, upper case at the end or all upper case are usual
+        if (lowerCase == 0
+            || upperCase == 1 && (isUpperCase(chars[start]) || isUpperCase(chars[end - 1]))) {
+            return 1;
+        }
+        for (int i = 1; i <= Math.min(upperCase, lowerCase); i++) {
+            variations += binomial(upperCase + lowerCase, i);
+        }
+        return log2(variations);
+    }
+
+    private void matchKeyboardWalks(int start) {
+        int shifted = isShifted(chars[start]) ? 1 : 0;
+        int turns = 0;
+        int direction = 0;
+        for (int end = start + 1; end < length; end++) {
+            final int previousKey = keyOf(chars[end - 1]);
+            final int key = keyOf(chars[end]);
+            final int nextDirection;
+            if (previousKey == -1 || key == -1) {
+                return;
+            }
+            nextDirection = KEY_DIRECTIONS[previousKey * KEY_COUNT + key];
+            if (nextDirection == 0) {
+                return;
+            }
+            if (nextDirection != direction) {
+                turns++;
+                direction = nextDirection;
+            }
+            if (isShifted(chars[end])) {
+                shifted++;
+            }
+            if (end + 1 - start >= MIN_PATTERN_LENGTH) {
+                relax(
+                    start,
+                    end + 1,
+                    keyboardWalkBits(end + 1 - start, turns, shifted),
+                    Pattern.KEYBOARD_WALK
+                );
+            }
+        }
+    }
+
+    private static double keyboardWalkBits(int walkLength, int turns, int shifted) {
+        final int unshifted = walkLength - shifted;
+        double guesses = 0;
+        for (int i = 2; i <= walkLength; i++) {
+            for (int j = 1; j <= Math.min(turns, i - 1); j++) {
+                guesses += binomial(i - 1, j - 1) * KEY_COUNT * Math.pow(KEYBOARD_AVERAGE_DEGREE, j);
+            }
+        }
+        if (shifted > 0) {
+            double variations = 0;
+            if (unshifted == 0) {
+                variations = 2;
+            }
+            else {
+                for (int i = 1; i <= Math.min(shifted, unshifted); i++) {
+                    variations += binomial(walkLength, i);
+                }
+            }
+            guesses *= variations;
+        }
+        return log2(guesses);
+    }
+
+    private void matchSequences(int start) {
+        if (start + 1 >= length) {
+            return;
+        }
+        final int delta = chars[start + 1] - chars[start];
+        final int symbols = sequenceSymbolsOf(chars[start]);
+        if (delta == 0 || Math.abs(delta) > MAX_SEQUENCE_DELTA || symbols == 0) {
+            return;
+        }
+        for (int end = start + 1; end < length; end++) {
+            if (chars[end] - chars[end - 1] != delta
+                || sequenceSymbolsOf(chars[end]) != symbols) {
+                return;
+            }
+            if (end + 1 - start >= MIN_PATTERN_LENGTH) {
+                relax(
+                    start,
+                    end + 1,
+                    sequenceBits(chars[start], symbols, delta, end + 1 - start),
+                    Pattern.SEQUENCE
+                );
+            }
+        }
+    }
+
+    private static double sequenceBits(char first, int symbols, int delta, int sequenceLength) {
+        // Sequences from the ends of the alphabet are the first guessed
+        final double starts = ("aAzZ019".indexOf(first) != -1) ? 4 : symbols;
+        final double directions = (delta < 0) ? 2 : 1;
+        return log2(starts * directions * Math.abs(delta) * sequenceLength);
+    }
+
+    private static int sequenceSymbolsOf(char c) {
+        if (c >= 'a' && c <= 'z' || c >= 'A' && c <= 'Z') {
+            return 26;
+        }
+        if (c >= '0' && c <= '9') {
+            return 10;
+        }
+        return 0;
+    }
+
+    private void matchRepeats(int start) {
+        int end = start + 1;
+        while (end < length && chars[end] == chars[start]) {
+            end++;
+            if (end - start >= MIN_PATTERN_LENGTH) {
+                relax(
+                    start,
+                    end,
+                    log2(cardinalityOf(chars[start]) * (double) (end - start)),
+                    Pattern.REPEAT
+                );
+            }
+        }
+        if (!matchesBlockRepeats || end - start > 1) {
+            return;
+        }
+        // Only the shortest block repeated from here, it's estimated without
+        // looking for repeated blocks again so the work doesn't blow up
+        for (int block = 2; start + 2 * block <= length; block++) {
+            int repeats = 1;
+            while (start + (repeats + 1) * block <= length
+                   && regionMatches(start, start + repeats * block, block)) {
+                repeats++;
+            }
+            if (repeats > 1) {
+                final String blockText = new String(chars, start, block);
+                final PasswordStrengthEstimator blockEstimator =
+                    new PasswordStrengthEstimator(blockText, false);
+                relax(
+                    start,
+                    start + repeats * block,
+                    blockEstimator.estimate(EnumSet.noneOf(Pattern.class)) + log2(repeats),
+                    Pattern.REPEAT
+                );
+                return;
+            }
+        }
+    }
+
+    private boolean regionMatches(int a, int b, int regionLength) {
+        for (int i = 0; i < regionLength; i++) {
+            if (chars[a + i] != chars[b + i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void matchDates(int start) {
+        final int[] parts = new int[3];
+        final int[] partLengths = new int[3];
+        int digits = 0;
+        int value = 0;
+        int part = 0;
+        char separator = 0;
+        for (int end = start; end < length && end - start < 10; end++) {
+            final char c = chars[end];
+            if (c >= '0' && c <= '9') {
+                value = value * 10 + (c - '0');
+                digits++;
+                partLengths[part]++;
+                if (part == 0 && digits >= 4 && digits <= 8) {
+                    matchDigitsDate(start, end + 1, value, digits);
+                }
+                if (part == 2 && partLengths[2] <= 4) {
+                    parts[2] = value;
+                    matchDate(start, end + 1, parts, partLengths, true);
+                }
+            }
+            else if ("/\\-._ ".indexOf(c) != -1 && part < 2
+                     && (separator == 0 || separator == c)
+                     && partLengths[part] > 0 && partLengths[part] <= 4) {
+                separator = c;
+                parts[part++] = value;
+                value = 0;
+            }
+            else {
+                return;
+            }
+        }
+    }
+
+    private void matchDigitsDate(int start, int end, int value, int digits) {
+        final int[] parts = new int[3];
+        final int[] partLengths = new int[3];
+        if (digits == 4 && value >= 1900 && value <= 2099) {
+            relax(start, end, log2(yearSpace(value)), Pattern.DATE);
+        }
+        for (int first = 1; first <= 4 && first < digits - 1; first++) {
+            for (int second = first + 1; second < digits && second - first <= 2; second++) {
+                partLengths[0] = first;
+                partLengths[1] = second - first;
+                partLengths[2] = digits - second;
+                if (partLengths[2] > 4) {
+                    continue;
+                }
+                parts[0] = parseDigits(start, start + first);
+                parts[1] = parseDigits(start + first, start + second);
+                parts[2] = parseDigits(start + second, end);
+                matchDate(start, end, parts, partLengths, false);
+            }
+        }
+    }
+
+    private int parseDigits(int start, int end) {
+        int value = 0;
+        for (int i = start; i < end; i++) {
+            value = value * 10 + (chars[i] - '0');
+        }
+        return value;
+    }
+
+    private void matchDate(
+        int start,
+        int end,
+        int[] parts,
+        int[] partLengths,
+        boolean separated
+    ) {
+        final int year;
+        // Year at the end (day and month in any order) or at the start
+        if (isYear(parts[2], partLengths[2]) && isDayAndMonth(parts[0], parts[1])) {
+            year = fullYear(parts[2], partLengths[2]);
+        }
+        else if (isYear(parts[0], partLengths[0]) && isDayAndMonth(parts[1], parts[2])) {
+            year = fullYear(parts[0], partLengths[0]);
+        }
+        else {
+            return;
+        }
+        relax(
+            start,
+            end,
+            log2(DAYS_PER_YEAR * yearSpace(year) * (separated ? 4 : 1)),
+            Pattern.DATE
+        );
+    }
+
+    private static boolean isYear(int value, int digits) {
+        return (digits == 2) || (digits == 4 && value >= 1000 && value <= 2099);
+    }
+
+    private static boolean isDayAndMonth(int a, int b) {
+        return a >= 1 && b >= 1 && (a <= 31 && b <= 12 || a <= 12 && b <= 31);
+    }
+
+    private static int fullYear(int value, int digits) {
+        if (digits == 4) {
+            return value;
+        }
+        return (value > 50) ? 1900 + value : 2000 + value;
+    }
+
+    private static int yearSpace(int year) {
+        return Math.max(Math.abs(year - REFERENCE_YEAR), MIN_YEAR_SPACE);
+    }
+
+    private static int keyOf(char c) {
+        return (c < KEYS.length) ? KEYS[c] : -1;
+    }
+
+    private static boolean isShifted(char c) {
+        return c < SHIFTED.length && SHIFTED[c];
+    }
+
+    private static boolean isUpperCase(char c) {
+        return c >= 'A' && c <= 'Z';
+    }
+
+    private static int cardinalityOf(char[] chars) {
+        boolean lowerCase = false;
+        boolean upperCase = false;
+        boolean digits = false;
+        boolean symbols = false;
+        boolean others = false;
+        for (char c : chars) {
+            lowerCase |= c >= 'a' && c <= 'z';
+            upperCase |= c >= 'A' && c <= 'Z';
+            digits |= c >= '0' && c <= '9';
+            symbols |= c >= ' ' && c <= '~' && !Character.isLetterOrDigit(c);
+            others |= c > '~' || c < ' ';
+        }
+        return (lowerCase ? 26 : 0) + (upperCase ? 26 : 0) + (digits ? 10 : 0)
+               + (symbols ? 33 : 0) + (others ? 100 : 0);
+    }
+
+    private static int cardinalityOf(char c) {
+        return cardinalityOf(new char[] { c });
+    }
+
+    private static double binomial(int n, int k) {
+        double result = 1;
+        for (int i = 1; i <= k; i++) {
+            result = result * (n - k + i) / i;
+        }
+        return result;
+    }
+
+    private static double log2(double value) {
+        return Math.log(Math.max(value, 1)) / Math.log(2);
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.bulk;
+
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Result of importing a directory of keys with {@link KeyImporter}.
+ *
+ * @author Tobias Briones
+ * @see KeyImporter
+ */
+public final class KeyImportReport {
+    private final long files;
+    private final long bytes;
+    private final long elapsedNanos;
+    private final List<Failure> failures;
+
+    KeyImportReport(
+        long files,
+        long bytes,
+        long elapsedNanos,
+        List<Failure> failures
+    ) {
+        this.files = files;
+        this.bytes = bytes;
+        this.elapsedNanos = elapsedNanos;
+        this.failures = Collections.unmodifiableList(failures);
+    }
+
+    /**
+     * @return the number of key files found.
+     */
+    public long getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the number of key files that were imported (and verified if
+     * credentials were given).
+     */
+    public long getImportedFiles() {
+        return files - failures.size();
+    }
+
+    /**
+     * @return the number of bytes read from the key files.
+     */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /**
+     * @return the time taken by the import in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @return the files that failed with the reason of each failure.
+     */
+    public List<Failure> getFailures() {
+        return failures;
+    }
+
+    /**
+     * @return the number of files processed per second.
+     */
+    public double getFilesPerSecond() {
+        return perSecond(files);
+    }
+
+    /**
+     * @return the number of bytes read per second.
+     */
+    public double getBytesPerSecond() {
+        return perSecond(bytes);
+    }
+
+    private double perSecond(long count) {
+        if (elapsedNanos == 0) {
+            return 0;
+        }
+        return count * (double) TimeUnit.SECONDS.toNanos(1) / elapsedNanos;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(
+            Locale.ROOT,
+            "%d files, %d imported, %d failed, %d bytes in %.3f s "
+            + "(%.1f files/s, %.1f MiB/s)",
+            files,
+            getImportedFiles(),
+            failures.size(),
+            bytes,
+            elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1),
+            getFilesPerSecond(),
+            getBytesPerSecond() / (1024 * 1024)
+        );
+    }
+
+    /**
+     * A key file that couldn't be imported.
+     */
+    public static final class Failure {
+        private final Path path;
+        private final String reason;
+
+        Failure(Path path, String reason) {
+            this.path = path;
+            this.reason = reason;
+        }
+
+        /**
+         * @return the path of the file.
+         */
+        public Path getPath() {
+            return path;
+        }
+
+        /**
+         * @return why the file couldn't be imported.
+         */
+        public String getReason() {
+            return reason;
+        }
+
+        @Override
+        public String toString() {
+            return path + ": " + reason;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.bulk;
+
+import dev.tobiasbriones.ep.passwordkey.generator.InvalidKeyException;
+import dev.tobiasbriones.ep.passwordkey.generator.Key;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyOpener;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+
+/**
+ * It imports every key file (files ending with {@link #KEY_FILE_EXTENSION})
+ * of a directory tree in parallel, optionally checking that each key opens
+ * with the given credentials.<br> The files are read by a fixed number of
+ * threads and the bytes of the files being read at the same time are bounded,
+ * so a tree of any size is imported with bounded memory.
+ *
+ * @author Tobias Briones
+ * @see KeyImportReport
+ */
+public final class KeyImporter {
+    public static final String KEY_FILE_EXTENSION = ".key";
+    private static final long MAP_THRESHOLD = 1 << 20;
+    private final int parallelism;
+    private final int maxBytesInFlight;
+    private final String ownerKeyPassword;
+    private final String userKeyPassword;
+    private final KeyOil dimensionLengthOil;
+
+    /**
+     * Creates an importer that only reads the keys.
+     *
+     * @param parallelism      number of files read at the same time.
+     * @param maxBytesInFlight maximum number of bytes of the files being read
+     *                         at the same time, a larger file is read alone.
+     */
+    public KeyImporter(int parallelism, int maxBytesInFlight) {
+        this(parallelism, maxBytesInFlight, null, null, null);
+    }
+
+    /**
+     * Creates an importer that reads the keys and checks that each one opens
+     * with the given credentials.
+     *
+     * @param parallelism        number of files read at the same time.
+     * @param maxBytesInFlight   maximum number of bytes of the files being
+     *                           read at the same time, a larger file is read
+     *                           alone.
+     * @param ownerKeyPassword   owner password of the keys.
+     * @param userKeyPassword    user password of the keys, empty for public
+     *                           keys.
+     * @param dimensionLengthOil oil which the keys were generated with.
+     */
+    public KeyImporter(
+        int parallelism,
+        int maxBytesInFlight,
+        String ownerKeyPassword,
+        String userKeyPassword,
+        KeyOil dimensionLengthOil
+    ) {
+        if (parallelism < 1 || maxBytesInFlight < 1) {
+            throw new IllegalArgumentException(
+                "Parallelism and bytes in flight must be positive"
+            );
+        }
+        this.parallelism = parallelism;
+        this.maxBytesInFlight = maxBytesInFlight;
+        this.ownerKeyPassword = ownerKeyPassword;
+        this.userKeyPassword = userKeyPassword;
+        this.dimensionLengthOil = dimensionLengthOil;
+    }
+
+    /**
+     * Imports the keys to check them without keeping them.
+     *
+     * @param directory root of the tree of key files.
+     *
+     * @return the report of the import.
+     *
+     * @throws IOException          if the directory can't be walked.
+     * @throws InterruptedException if interrupted while importing.
+     */
+    public KeyImportReport importDirectory(Path directory) throws IOException,
+                                                                  InterruptedException {
+        return importDirectory(directory, (path, key) -> {});
+    }
+
+    /**
+     * Imports the keys and passes every imported key to the consumer, which
+     * is called from many threads at once.
+     *
+     * @param directory root of the tree of key files.
+     * @param consumer  receives the path and key of every imported file.
+     *
+     * @return the report of the import.
+     *
+     * @throws IOException          if the directory can't be walked.
+     * @throws InterruptedException if interrupted while importing.
+     */
+    public KeyImportReport importDirectory(
+        Path directory,
+        BiConsumer<Path, Key> consumer
+    ) throws IOException,
+             InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        final Semaphore bytesInFlight = new Semaphore(maxBytesInFlight);
+        final Queue<KeyImportReport.Failure> failures = new ConcurrentLinkedQueue<>();
+        final AtomicLong files = new AtomicLong();
+        final AtomicLong bytes = new AtomicLong();
+        final long start = System.nanoTime();
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(
+                    Path file,
+                    BasicFileAttributes attrs
+                ) throws IOException {
+                    if (!attrs.isRegularFile() || !isKeyFile(file)) {
+                        return FileVisitResult.CONTINUE;
+                    }
+                    final int permits = (int) Math.max(
+                        1,
+                        Math.min(attrs.size(), maxBytesInFlight)
+                    );
+                    try {
+                        bytesInFlight.acquire(permits);
+                    }
+                    catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException();
+                    }
+                    files.incrementAndGet();
+                    executor.execute(() -> {
+                        try {
+                            importFile(file, attrs.size(), consumer, failures, bytes);
+                        }
+                        finally {
+                            bytesInFlight.release(permits);
+                        }
+                    });
+                    return FileVisitResult.CONTINUE;
+                }
+
+                @Override
+                public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                    files.incrementAndGet();
+                    failures.add(new KeyImportReport.Failure(file, exc.toString()));
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        }
+        finally {
+            executor.shutdown();
+            executor.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+        }
+        return new KeyImportReport(
+            files.get(),
+            bytes.get(),
+            System.nanoTime() - start,
+            new ArrayList<>(failures)
+        );
+    }
+
+    private void importFile(
+        Path file,
+        long size,
+        BiConsumer<Path, Key> consumer,
+        Queue<KeyImportReport.Failure> failures,
+        AtomicLong bytes
+    ) {
+        try {
+            final Key key;
+            try {
+                key = readKey(file, size);
+            }
+            finally {
+                bytes.addAndGet(size);
+            }
+            if (ownerKeyPassword != null) {
+                MergeKeyOpener.openKey(
+                    key,
+                    ownerKeyPassword,
+                    userKeyPassword,
+                    dimensionLengthOil
+                );
+            }
+            consumer.accept(file, key);
+        }
+        catch (IOException | InvalidKeyException e) {
+            failures.add(new KeyImportReport.Failure(file, reasonOf(e)));
+        }
+        catch (RuntimeException e) {
+            // Rejected work, malformed keys and consumer failures fail the
+            // file instead of the worker thread
+            failures.add(new KeyImportReport.Failure(file, e.toString()));
+        }
+        catch (Error e) {
+            failures.add(new KeyImportReport.Failure(file, e.toString()));
+            throw e;
+        }
+    }
+
+    private static String reasonOf(Exception e) {
+        return (e.getMessage() != null) ? e.getMessage() : e.toString();
+    }
+
+    private static Key readKey(Path file, long size) throws IOException,
+                                                            InvalidKeyException {
+        if (size < MAP_THRESHOLD) {
+            return Key.fromByteBuffer(ByteBuffer.wrap(Files.readAllBytes(file)));
+        }
+        try (FileChannel channel = FileChannel.open(file)) {
+            return Key.fromFileChannel(channel);
+        }
+    }
+
+    private static boolean isKeyFile(Path file) {
+        final Path fileName = file.getFileName();
+        return fileName != null && fileName.toString().endsWith(KEY_FILE_EXTENSION);
+    }
+}
@@ -0,0 +1,18 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+/**
+ * Provides tools to work with large sets of keys at once.
+ *
+ * @author Tobias Briones
+ */
+package dev.tobiasbriones.ep.passwordkey.bulk;
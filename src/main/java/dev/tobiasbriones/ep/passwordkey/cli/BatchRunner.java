@@ -0,0 +1,313 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.cli;
+
+import dev.tobiasbriones.ep.passwordkey.NotAcceptedByPasswordProtocolException;
+import dev.tobiasbriones.ep.passwordkey.generator.InvalidKeyException;
+import dev.tobiasbriones.ep.passwordkey.generator.Key;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyGenerator;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyOpener;
+import dev.tobiasbriones.ep.passwordkey.generator.UnsupportedDataKeyException;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the jobs of a batch, one JSON object per line, on a number of workers
+ * and writes their results in the same order, one JSON object per line.<br>
+ * A job is an object with the fields {@code op} ({@code generate}, {@code
+ * open} or {@code validate}), {@code owner}, and optionally {@code id}, {@code
+ * user}, {@code oil} as {@code [negative, positive]}, {@code data} to generate
+ * and {@code key} to open or validate, the oil of a key to open defaults to
+ * the one in its header. A result echoes the {@code id} and has {@code ok}
+ * with either {@code key}, {@code data}, {@code valid} or {@code error}.
+ *
+ * @author Tobias Briones
+ */
+final class BatchRunner {
+    private static final int JOBS_PER_WORKER_IN_FLIGHT = 4;
+    private final int workers;
+
+    BatchRunner(int workers) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Workers must be positive");
+        }
+        this.workers = workers;
+    }
+
+    /**
+     * Runs every job read from the input and writes the results into the
+     * output.
+     *
+     * @return a summary of the run.
+     */
+    Summary run(BufferedReader input, Writer output) throws IOException,
+                                                            InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(workers);
+        final Queue<Future<Result>> inFlight = new ArrayDeque<>();
+        final int maxInFlight = workers * JOBS_PER_WORKER_IN_FLIGHT;
+        final long start = System.nanoTime();
+        final Summary summary = new Summary();
+        try {
+            String line;
+            while ((line = input.readLine()) != null) {
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final String job = line;
+                if (inFlight.size() == maxInFlight) {
+                    write(inFlight.remove(), output, summary);
+                }
+                inFlight.add(executor.submit(() -> run(job)));
+            }
+            while (!inFlight.isEmpty()) {
+                write(inFlight.remove(), output, summary);
+            }
+            output.flush();
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        summary.elapsedNanos = System.nanoTime() - start;
+        return summary;
+    }
+
+    private static void write(
+        Future<Result> job,
+        Writer output,
+        Summary summary
+    ) throws IOException,
+             InterruptedException {
+        final Result result;
+        try {
+            result = job.get();
+        }
+        catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+        output.write(result.line);
+        output.write('\n');
+        summary.add(result);
+    }
+
+    private static Result run(String job) {
+        final long start = System.nanoTime();
+        String id = "null";
+        String line;
+        boolean ok = false;
+        try {
+            final Map<String, Object> fields = Json.parseObject(job);
+            id = idOf(fields.get("id"));
+            line = "{\"id\":" + id + ",\"ok\":true," + execute(fields) + "}";
+            ok = true;
+        }
+        catch (IllegalArgumentException e) {
+            line = errorLine(id, e.getMessage());
+        }
+        catch (NotAcceptedByPasswordProtocolException e) {
+            line = errorLine(id, "password not accepted");
+        }
+        catch (UnsupportedDataKeyException e) {
+            line = errorLine(id, "unsupported data");
+        }
+        catch (InvalidKeyException e) {
+            line = errorLine(id, e.getMessage());
+        }
+        catch (IOException | RuntimeException e) {
+            line = errorLine(id, e.toString());
+        }
+        return new Result(line, ok, System.nanoTime() - start);
+    }
+
+    private static String execute(Map<String, Object> fields) throws NotAcceptedByPasswordProtocolException,
+                                                                     UnsupportedDataKeyException,
+                                                                     InvalidKeyException,
+                                                                     IOException {
+        final String operation = stringField(fields, "op", null);
+        final String owner = stringField(fields, "owner", null);
+        final String user = stringField(fields, "user", "");
+        final KeyOil oil = oilOf(fields.get("oil"));
+        switch (operation) {
+            case "generate": {
+                final String data = stringField(fields, "data", null);
+                final Key key = (user.isEmpty())
+                                ? MergeKeyGenerator.generatePublicKey(data, owner, oil)
+                                : MergeKeyGenerator.generateKey(data, owner, user, oil);
+                return "\"key\":" + Json.quote(key.toOutputStream().toString("US-ASCII"));
+            }
+            case "open": {
+                final Key key = keyOf(stringField(fields, "key", null));
+                return "\"data\":" + Json.quote(
+                    MergeKeyOpener.openKey(key, owner, user, oilOf(fields.get("oil"), key))
+                );
+            }
+            case "validate": {
+                final Key key = keyOf(stringField(fields, "key", null));
+                boolean valid = true;
+                try {
+                    MergeKeyOpener.openKey(key, owner, user, oilOf(fields.get("oil"), key));
+                }
+                catch (InvalidKeyException e) {
+                    valid = false;
+                }
+                return "\"valid\":" + valid;
+            }
+            default:
+                throw new IllegalArgumentException("Unknown op " + operation);
+        }
+    }
+
+    private static String stringField(
+        Map<String, Object> fields,
+        String name,
+        String defaultValue
+    ) {
+        final Object value = fields.get(name);
+        if (value == null) {
+            if (defaultValue == null) {
+                throw new IllegalArgumentException("Missing " + name);
+            }
+            return defaultValue;
+        }
+        if (!(value instanceof String)) {
+            throw new IllegalArgumentException(name + " must be a string");
+        }
+        return (String) value;
+    }
+
+    private static KeyOil oilOf(Object value, Key key) {
+        if (value == null && key.getHeader() != null) {
+            return key.getHeader().getOil();
+        }
+        return oilOf(value);
+    }
+
+    private static KeyOil oilOf(Object value) {
+        if (value == null) {
+            return new KeyOil(0, 0);
+        }
+        if (!(value instanceof List) || ((List<?>) value).size() != 2) {
+            throw new IllegalArgumentException("oil must be [negative, positive]");
+        }
+        final List<?> oil = (List<?>) value;
+        if (!(oil.get(0) instanceof Long) || !(oil.get(1) instanceof Long)) {
+            throw new IllegalArgumentException("oil must be [negative, positive]");
+        }
+        return new KeyOil(
+            Math.toIntExact((Long) oil.get(0)),
+            Math.toIntExact((Long) oil.get(1))
+        );
+    }
+
+    private static Key keyOf(String key) throws InvalidKeyException {
+        return Key.fromByteBuffer(ByteBuffer.wrap(key.getBytes(StandardCharsets.US_ASCII)));
+    }
+
+    private static String idOf(Object id) {
+        if (id == null) {
+            return "null";
+        }
+        if (id instanceof String) {
+            return Json.quote((String) id);
+        }
+        return id.toString();
+    }
+
+    private static String errorLine(String id, String error) {
+        return "{\"id\":" + id + ",\"ok\":false,\"error\":" + Json.quote(String.valueOf(error)) + "}";
+    }
+
+    private static final class Result {
+        private final String line;
+        private final boolean ok;
+        private final long nanos;
+
+        Result(String line, boolean ok, long nanos) {
+            this.line = line;
+            this.ok = ok;
+            this.nanos = nanos;
+        }
+    }
+
+    /**
+     * Throughput and latency of a batch run.
+     */
+    static final class Summary {
+        private long[] latencies = new long[1024];
+        private int jobs = 0;
+        private int failures = 0;
+        private long elapsedNanos = 0;
+
+        private void add(Result result) {
+            if (jobs == latencies.length) {
+                latencies = Arrays.copyOf(latencies, jobs * 2);
+            }
+            latencies[jobs++] = result.nanos;
+            if (!result.ok) {
+                failures++;
+            }
+        }
+
+        int getJobs() {
+            return jobs;
+        }
+
+        int getFailures() {
+            return failures;
+        }
+
+        @Override
+        public String toString() {
+            final long[] sorted = Arrays.copyOf(latencies, jobs);
+            final double seconds = elapsedNanos / (double) TimeUnit.SECONDS.toNanos(1);
+            Arrays.sort(sorted);
+            return String.format(
+                Locale.ROOT,
+                "%d jobs, %d failed in %.3f s (%.1f jobs/s)%n"
+                + "latency ms: p50 %.2f, p90 %.2f, p99 %.2f, p99.9 %.2f, max %.2f",
+                jobs,
+                failures,
+                seconds,
+                (seconds == 0) ? 0 : jobs / seconds,
+                percentile(sorted, 50),
+                percentile(sorted, 90),
+                percentile(sorted, 99),
+                percentile(sorted, 99.9),
+                percentile(sorted, 100)
+            );
+        }
+
+        private static double percentile(long[] sorted, double percentile) {
+            if (sorted.length == 0) {
+                return 0;
+            }
+            final int rank = (int) Math.ceil(percentile / 100 * sorted.length);
+            return sorted[Math.max(rank, 1) - 1] / 1e6;
+        }
+    }
+}
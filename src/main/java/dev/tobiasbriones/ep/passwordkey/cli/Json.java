@@ -0,0 +1,260 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.cli;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON to read and write the lines of a batch, objects are read
+ * into maps, arrays into lists, numbers into {@link Long} or {@link Double}.
+ *
+ * @author Tobias Briones
+ */
+final class Json {
+    static Map<String, Object> parseObject(String json) {
+        final Json parser = new Json(json);
+        final Object value;
+        parser.skipWhitespace();
+        value = parser.readValue();
+        parser.skipWhitespace();
+        if (parser.position != json.length()) {
+            throw parser.error("Unexpected content");
+        }
+        if (!(value instanceof Map)) {
+            throw parser.error("Expected an object");
+        }
+        @SuppressWarnings("unchecked")
+        final Map<String, Object> object = (Map<String, Object>) value;
+        return object;
+    }
+
+    static String quote(String string) {
+        final StringBuilder builder = new StringBuilder(string.length() + 2);
+        builder.append('"');
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            switch (c) {
+                case '"':
+                    builder.append("\\\"");
+                    break;
+                case '\\':
+                    builder.append("\\\\");
+                    break;
+                case '\n':
+                    builder.append("\\n");
+                    break;
+                case '\r':
+                    builder.append("\\r");
+                    break;
+                case '\t':
+                    builder.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        builder.append(String.format("\\u%04x", (int) c));
+                    }
+                    else {
+                        builder.append(c);
+                    }
+            }
+        }
+        return builder.append('"').toString();
+    }
+
+    private final String json;
+    private int position;
+
+    private Json(String json) {
+        this.json = json;
+        this.position = 0;
+    }
+
+    private Object readValue() {
+        if (position >= json.length()) {
+            throw error("Unexpected end");
+        }
+        final char c = json.charAt(position);
+        switch (c) {
+            case '{':
+                return readObject();
+            case '[':
+                return readArray();
+            case '"':
+                return readString();
+            case 't':
+                expect("true");
+                return Boolean.TRUE;
+            case 'f':
+                expect("false");
+                return Boolean.FALSE;
+            case 'n':
+                expect("null");
+                return null;
+            default:
+                return readNumber();
+        }
+    }
+
+    private Map<String, Object> readObject() {
+        final Map<String, Object> object = new LinkedHashMap<>();
+        position++;
+        skipWhitespace();
+        if (peek() == '}') {
+            position++;
+            return object;
+        }
+        while (true) {
+            final String name;
+            skipWhitespace();
+            if (peek() != '"') {
+                throw error("Expected a name");
+            }
+            name = readString();
+            skipWhitespace();
+            expect(":");
+            skipWhitespace();
+            object.put(name, readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            }
+            else {
+                expect("}");
+                return object;
+            }
+        }
+    }
+
+    private List<Object> readArray() {
+        final List<Object> array = new ArrayList<>();
+        position++;
+        skipWhitespace();
+        if (peek() == ']') {
+            position++;
+            return array;
+        }
+        while (true) {
+            skipWhitespace();
+            array.add(readValue());
+            skipWhitespace();
+            if (peek() == ',') {
+                position++;
+            }
+            else {
+                expect("]");
+                return array;
+            }
+        }
+    }
+
+    private String readString() {
+        final StringBuilder builder = new StringBuilder();
+        position++;
+        while (true) {
+            final char c = next();
+            if (c == '"') {
+                return builder.toString();
+            }
+            if (c != '\\') {
+                builder.append(c);
+                continue;
+            }
+            final char escaped = next();
+            switch (escaped) {
+                case 'b':
+                    builder.append('\b');
+                    break;
+                case 'f':
+                    builder.append('\f');
+                    break;
+                case 'n':
+                    builder.append('\n');
+                    break;
+                case 'r':
+                    builder.append('\r');
+                    break;
+                case 't':
+                    builder.append('\t');
+                    break;
+                case 'u':
+                    if (position + 4 > json.length()) {
+                        throw error("Unexpected end");
+                    }
+                    try {
+                        builder.append((char) Integer.parseInt(
+                            json.substring(position, position + 4),
+                            16
+                        ));
+                    }
+                    catch (NumberFormatException e) {
+                        throw error("Invalid escape");
+                    }
+                    position += 4;
+                    break;
+                default:
+                    builder.append(escaped);
+            }
+        }
+    }
+
+    private Number readNumber() {
+        final int start = position;
+        while (position < json.length() && "+-0123456789.eE".indexOf(json.charAt(position)) != -1) {
+            position++;
+        }
+        final String number = json.substring(start, position);
+        try {
+            if (number.indexOf('.') == -1 && number.indexOf('e') == -1 && number.indexOf('E') == -1) {
+                return Long.parseLong(number);
+            }
+            return Double.parseDouble(number);
+        }
+        catch (NumberFormatException e) {
+            position = start;
+            throw error("Unexpected value");
+        }
+    }
+
+    private void expect(String token) {
+        if (!json.startsWith(token, position)) {
+            throw error("Expected " + token);
+        }
+        position += token.length();
+    }
+
+    private char peek() {
+        if (position >= json.length()) {
+            throw error("Unexpected end");
+        }
+        return json.charAt(position);
+    }
+
+    private char next() {
+        final char c = peek();
+        position++;
+        return c;
+    }
+
+    private void skipWhitespace() {
+        while (position < json.length() && Character.isWhitespace(json.charAt(position))) {
+            position++;
+        }
+    }
+
+    private IllegalArgumentException error(String message) {
+        return new IllegalArgumentException(message + " at " + position);
+    }
+}
@@ -0,0 +1,641 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.cli;
+
+import dev.tobiasbriones.ep.passwordkey.NotAcceptedByPasswordProtocolException;
+import dev.tobiasbriones.ep.passwordkey.PasswordProtocol;
+import dev.tobiasbriones.ep.passwordkey.PasswordStrength;
+import dev.tobiasbriones.ep.passwordkey.generator.InvalidKeyException;
+import dev.tobiasbriones.ep.passwordkey.generator.Key;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyWarmup;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyGenerator;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyOpener;
+import dev.tobiasbriones.ep.passwordkey.generator.OpenedKeyCache;
+import dev.tobiasbriones.ep.passwordkey.generator.UnsupportedDataKeyException;
+import dev.tobiasbriones.ep.passwordkey.loadtest.LoadTest;
+import dev.tobiasbriones.ep.passwordkey.loadtest.LoadTestConfig;
+import dev.tobiasbriones.ep.passwordkey.loadtest.LoadTestReport;
+import dev.tobiasbriones.ep.passwordkey.service.KeyService;
+import dev.tobiasbriones.ep.passwordkey.simd.TextScanBenchmark;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Command-line entry point to generate, open and validate keys, and to run
+ * batches of jobs or the key service.
+ *
+ * @author Tobias Briones
+ * @see BatchRunner
+ */
+public final class PasswordKeyCli {
+    private static final int EXIT_OK = 0;
+    private static final int EXIT_INVALID = 1;
+    private static final int EXIT_USAGE = 2;
+    private static final int EXIT_FAILURE = 3;
+    private static final String STARTUP_DATA = "{\"user\":\"startup\",\"pass\":\"0123456789\"}";
+    private static final String STARTUP_PASSWORD = "startup-password";
+    private static final String USAGE =
+        "Usage: password-key <command> [options]\n"
+        + "  generate --owner <password> [--user <password>] [--oil <n,p>]\n"
+        + "           [--data <data>] [--out <file>]\n"
+        + "      Generates a key, the data is read from stdin if not given.\n"
+        + "  open     --owner <password> [--user <password>] [--oil <n,p>]\n"
+        + "           [--key <file>]\n"
+        + "      Prints the data of a key, the key is read from stdin if not"
+        + " given.\n"
+        + "      The oil defaults to the one in the header of the key.\n"
+        + "  validate --owner <password> [--user <password>] [--oil <n,p>]\n"
+        + "           [--key <file>]\n"
+        + "      Exits with 0 if the key opens, 1 otherwise.\n"
+        + "  passwd   --owner <password> --new-owner <password> [--key <file>]\n"
+        + "      Changes an owner password, the key file is rewritten in place.\n"
+        + "  upgrade  --owner <password> [--user <password>] [--oil <n,p>]\n"
+        + "           [--key <file>]\n"
+        + "      Upgrades a key to the version whose owner password can change.\n"
+        + "  batch    [--workers <n>] [--in <file>] [--out <file>]\n"
+        + "      Runs NDJSON jobs, results are written in order and a summary"
+        + " to stderr.\n"
+        + "  serve    [--port <port>] [--workers <n>] [--warmup <rounds>]\n"
+        + "           [--cache <entries>] [--cache-ttl <ms>]"
+        + " [--max-frame <bytes>]\n"
+        + "           [--max-connections <n>]\n"
+        + "      Warms up and runs the key service on the loopback interface,"
+        + " the\n"
+        + "      opened keys are cached if --cache is given, requests are"
+        + " limited\n"
+        + "      to --max-frame bytes (16 MiB by default) and connections to\n"
+        + "      --max-connections (256 by default).\n"
+        + "  loadtest [--config <properties file>] [--out <file>]\n"
+        + "      Runs a load test, see LoadTestConfig, and writes its JSON"
+        + " report.\n"
+        + "  bench-scan [--length <n>] [--iterations <n>]\n"
+        + "      Measures the text scans against their scalar version.\n"
+        + "  warmup   [--rounds <n>]\n"
+        + "      Runs the warm-up, the training run of the AppCDS archive.\n"
+        + "  startup  [--warmup <rounds>]\n"
+        + "      Prints the time from the JVM start to the first key opened.\n"
+        + "  strength --password <password>\n"
+        + "      Prints the estimated strength of a password.\n"
+        + "Every password option --<name> <password> can be given as\n"
+        + "--<name>-env <variable> or --<name>-file <file> instead, the"
+        + " inline form is\n"
+        + "visible to other processes and kept in the shell history, it's"
+        + " meant for\n"
+        + "tests.\n";
+
+    public static void main(String[] args) {
+        System.exit(run(args, System.in, System.out, System.err));
+    }
+
+    static int run(String[] args, InputStream in, PrintStream out, PrintStream err) {
+        if (args.length == 0) {
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        final Map<String, String> options;
+        try {
+            options = parseOptions(args);
+            switch (args[0]) {
+                case "generate":
+                    return generate(options, in, out);
+                case "open":
+                    return open(options, in, out, err);
+                case "validate":
+                    return validate(options, in);
+                case "passwd":
+                    return changeOwnerPassword(options, in, out, err);
+                case "upgrade":
+                    return upgrade(options, in, out, err);
+                case "batch":
+                    return batch(options, in, out, err);
+                case "serve":
+                    return serve(options, err);
+                case "loadtest":
+                    return loadTest(options, out, err);
+                case "bench-scan":
+                    return benchScan(options, out);
+                case "warmup":
+                    return warmup(options, err);
+                case "startup":
+                    return startup(options, out);
+                case "strength":
+                    return strength(options, out);
+                default:
+                    err.print(USAGE);
+                    return EXIT_USAGE;
+            }
+        }
+        catch (IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.print(USAGE);
+            return EXIT_USAGE;
+        }
+        catch (NotAcceptedByPasswordProtocolException | UnsupportedDataKeyException e) {
+            err.println(e.getMessage());
+            return EXIT_FAILURE;
+        }
+        catch (IOException e) {
+            err.println(e);
+            return EXIT_FAILURE;
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return EXIT_FAILURE;
+        }
+        catch (Exception e) {
+            err.println(e);
+            return EXIT_FAILURE;
+        }
+    }
+
+    private static int generate(
+        Map<String, String> options,
+        InputStream in,
+        PrintStream out
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        final String owner = requiredPassword(options, "owner");
+        final String user = passwordOf(options, "user", "");
+        final KeyOil oil = oilOf(options.get("oil"));
+        final String data = (options.containsKey("data"))
+                            ? options.get("data")
+                            : stripLineFeed(new String(readAll(in), StandardCharsets.UTF_8));
+        // Streamed, so large oil doesn't need the key in memory
+        if (options.containsKey("out")) {
+            try (OutputStream os = new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(options.get("out")))
+            )) {
+                MergeKeyGenerator.writeKey(data, owner, user, oil, os);
+            }
+        }
+        else {
+            MergeKeyGenerator.writeKey(data, owner, user, oil, out);
+            out.println();
+            out.flush();
+        }
+        return EXIT_OK;
+    }
+
+    private static int open(
+        Map<String, String> options,
+        InputStream in,
+        PrintStream out,
+        PrintStream err
+    ) throws IOException {
+        try {
+            final Key key = readKey(options, in);
+            final String data = MergeKeyOpener.openKey(
+                key,
+                requiredPassword(options, "owner"),
+                passwordOf(options, "user", ""),
+                oilOf(options.get("oil"), key)
+            );
+            out.write(data.getBytes(StandardCharsets.UTF_8));
+            out.println();
+            out.flush();
+            return EXIT_OK;
+        }
+        catch (InvalidKeyException e) {
+            err.println(e.getMessage());
+            return EXIT_INVALID;
+        }
+    }
+
+    private static int validate(
+        Map<String, String> options,
+        InputStream in
+    ) throws IOException {
+        try {
+            final Key key = readKey(options, in);
+            MergeKeyOpener.openKey(
+                key,
+                requiredPassword(options, "owner"),
+                passwordOf(options, "user", ""),
+                oilOf(options.get("oil"), key)
+            );
+            return EXIT_OK;
+        }
+        catch (InvalidKeyException e) {
+            return EXIT_INVALID;
+        }
+    }
+
+    private static int changeOwnerPassword(
+        Map<String, String> options,
+        InputStream in,
+        PrintStream out,
+        PrintStream err
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        try {
+            writeKey(
+                MergeKeyGenerator.changeOwnerPassword(
+                    readKey(options, in),
+                    requiredPassword(options, "owner"),
+                    requiredPassword(options, "new-owner")
+                ),
+                options,
+                out
+            );
+            return EXIT_OK;
+        }
+        catch (InvalidKeyException e) {
+            err.println(e.getMessage());
+            return EXIT_INVALID;
+        }
+    }
+
+    private static int upgrade(
+        Map<String, String> options,
+        InputStream in,
+        PrintStream out,
+        PrintStream err
+    ) throws UnsupportedDataKeyException,
+             IOException {
+        try {
+            final Key key = readKey(options, in);
+            writeKey(
+                MergeKeyGenerator.upgradeKey(
+                    key,
+                    requiredPassword(options, "owner"),
+                    passwordOf(options, "user", ""),
+                    oilOf(options.get("oil"), key)
+                ),
+                options,
+                out
+            );
+            return EXIT_OK;
+        }
+        catch (InvalidKeyException e) {
+            err.println(e.getMessage());
+            return EXIT_INVALID;
+        }
+    }
+
+    private static int batch(
+        Map<String, String> options,
+        InputStream in,
+        PrintStream out,
+        PrintStream err
+    ) throws IOException,
+             InterruptedException {
+        final int workers = intOf(
+            options,
+            "workers",
+            Runtime.getRuntime().availableProcessors()
+        );
+        final BatchRunner.Summary summary;
+        try (
+            BufferedReader input = (options.containsKey("in"))
+                                   ? Files.newBufferedReader(Paths.get(options.get("in")))
+                                   : new BufferedReader(new InputStreamReader(in, StandardCharsets.UTF_8));
+            Writer output = (options.containsKey("out"))
+                            ? Files.newBufferedWriter(Paths.get(options.get("out")))
+                            : new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))
+        ) {
+            summary = new BatchRunner(workers).run(input, output);
+        }
+        err.println(summary);
+        return (summary.getFailures() == 0) ? EXIT_OK : EXIT_INVALID;
+    }
+
+    private static int serve(
+        Map<String, String> options,
+        PrintStream err
+    ) throws IOException,
+             InterruptedException {
+        final KeyService service;
+        final int cacheEntries = intOf(options, "cache", 0);
+        if (cacheEntries > 0) {
+            OpenedKeyCache.configure(
+                cacheEntries,
+                intOf(options, "cache-ttl", 60000),
+                OpenedKeyCache.Eviction.LEAST_RECENTLY_USED
+            );
+        }
+        KeyWarmup.run(intOf(options, "warmup", 1));
+        service = KeyService.start(
+            intOf(options, "port", 0),
+            intOf(options, "workers", Runtime.getRuntime().availableProcessors()),
+            intOf(options, "max-frame", KeyService.DEFAULT_MAX_FRAME_LENGTH),
+            intOf(options, "max-connections", KeyService.DEFAULT_MAX_CONNECTIONS)
+        );
+        err.println("Key service listening on 127.0.0.1:" + service.getPort());
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                service.close();
+            }
+            catch (IOException ignored) {
+                // Exiting anyway
+            }
+        }));
+        Thread.currentThread().join();
+        return EXIT_OK;
+    }
+
+    private static int loadTest(
+        Map<String, String> options,
+        PrintStream out,
+        PrintStream err
+    ) throws Exception {
+        final Properties properties = new Properties();
+        final LoadTestReport report;
+        if (options.containsKey("config")) {
+            try (Reader reader = Files.newBufferedReader(Paths.get(options.get("config")))) {
+                properties.load(reader);
+            }
+        }
+        report = new LoadTest(new LoadTestConfig(properties)).run();
+        err.print(report);
+        if (options.containsKey("out")) {
+            Files.write(
+                Paths.get(options.get("out")),
+                report.toJson().getBytes(StandardCharsets.UTF_8)
+            );
+        }
+        else {
+            out.println(report.toJson());
+        }
+        return EXIT_OK;
+    }
+
+    private static int benchScan(Map<String, String> options, PrintStream out) {
+        out.print(new TextScanBenchmark(
+            intOf(options, "length", 4096),
+            intOf(options, "iterations", 20000)
+        ).run());
+        return EXIT_OK;
+    }
+
+    private static int warmup(Map<String, String> options, PrintStream err) {
+        final long nanos = KeyWarmup.run(intOf(options, "rounds", 2));
+        err.println("Warmed up in " + TimeUnit.NANOSECONDS.toMillis(nanos) + " ms");
+        return EXIT_OK;
+    }
+
+    private static int startup(
+        Map<String, String> options,
+        PrintStream out
+    ) throws Exception {
+        final int rounds = intOf(options, "warmup", 0);
+        final long warmupNanos = (rounds > 0) ? KeyWarmup.run(rounds) : 0;
+        final long start = System.nanoTime();
+        final KeyOil oil = new KeyOil(16, 8);
+        final Key key = MergeKeyGenerator.generateKey(
+            STARTUP_DATA,
+            STARTUP_PASSWORD,
+            STARTUP_PASSWORD,
+            oil
+        );
+        final long firstKeyNanos;
+        MergeKeyOpener.openKey(key, STARTUP_PASSWORD, STARTUP_PASSWORD, oil);
+        firstKeyNanos = System.nanoTime() - start;
+        // Read last, the management classes would count as startup otherwise
+        final long sinceJvmStart = System.currentTimeMillis()
+                                   - ManagementFactory.getRuntimeMXBean().getStartTime();
+        out.println(
+            "{\"warmupMillis\":" + TimeUnit.NANOSECONDS.toMillis(warmupNanos)
+            + ",\"firstKeyMillis\":" + TimeUnit.NANOSECONDS.toMillis(firstKeyNanos)
+            + ",\"jvmStartToFirstKeyMillis\":" + sinceJvmStart + "}"
+        );
+        return EXIT_OK;
+    }
+
+    private static int strength(
+        Map<String, String> options,
+        PrintStream out
+    ) throws IOException {
+        final PasswordStrength strength =
+            PasswordProtocol.getPasswordStrength(requiredPassword(options, "password"));
+        final StringBuilder patterns = new StringBuilder();
+        for (PasswordStrength.Pattern pattern : strength.getPatterns()) {
+            patterns.append((patterns.length() == 0) ? "" : ",").append(Json.quote(pattern.name()));
+        }
+        out.println(
+            "{\"score\":" + strength.getScore()
+            + ",\"guessesLog10\":" + String.format(Locale.ROOT, "%.2f", strength.getGuessesLog10())
+            + ",\"quality\":" + Json.quote(strength.getQuality().name())
+            + ",\"patterns\":[" + patterns + "]}"
+        );
+        return EXIT_OK;
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        final Map<String, String> options = new HashMap<>();
+        for (int i = 1; i < args.length; i += 2) {
+            if (!args[i].startsWith("--") || i + 1 == args.length) {
+                throw new IllegalArgumentException("Invalid option " + args[i]);
+            }
+            options.put(args[i].substring(2), args[i + 1]);
+        }
+        return options;
+    }
+
+    private static String required(Map<String, String> options, String name) {
+        final String value = options.get(name);
+        if (value == null) {
+            throw new IllegalArgumentException("Missing --" + name);
+        }
+        return value;
+    }
+
+    private static String requiredPassword(
+        Map<String, String> options,
+        String name
+    ) throws IOException {
+        final String password = passwordOf(options, name, null);
+        if (password == null) {
+            throw new IllegalArgumentException(
+                "Missing --" + name + "-env, --" + name + "-file or --" + name
+            );
+        }
+        return password;
+    }
+
+    /**
+     * @return the password given by the environment variable of {@code
+     * --<name>-env}, the first line of the file of {@code --<name>-file} or
+     * the value of {@code --<name>}, only one of them can be given.
+     */
+    private static String passwordOf(
+        Map<String, String> options,
+        String name,
+        String defaultValue
+    ) throws IOException {
+        final String variable = options.get(name + "-env");
+        final String file = options.get(name + "-file");
+        final String inline = options.get(name);
+        if ((variable != null ? 1 : 0) + (file != null ? 1 : 0) + (inline != null ? 1 : 0) > 1) {
+            throw new IllegalArgumentException(
+                "Only one of --" + name + "-env, --" + name + "-file and --" + name
+            );
+        }
+        if (variable != null) {
+            final String password = System.getenv(variable);
+            if (password == null) {
+                throw new IllegalArgumentException("Unset variable of --" + name + "-env");
+            }
+            return password;
+        }
+        if (file != null) {
+            try (BufferedReader reader = Files.newBufferedReader(
+                Paths.get(file),
+                StandardCharsets.UTF_8
+            )) {
+                final String password = reader.readLine();
+                return (password != null) ? password : "";
+            }
+        }
+        return (inline != null) ? inline : defaultValue;
+    }
+
+    private static int intOf(Map<String, String> options, String name, int defaultValue) {
+        final String value = options.get(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value);
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid --" + name);
+        }
+    }
+
+    /**
+     * @return the given oil, or the oil in the header of the key if not
+     * given.
+     */
+    private static KeyOil oilOf(String value, Key key) {
+        if (value == null && key.getHeader() != null) {
+            return key.getHeader().getOil();
+        }
+        return oilOf(value);
+    }
+
+    private static KeyOil oilOf(String value) {
+        if (value == null) {
+            return new KeyOil(0, 0);
+        }
+        final String[] lengths = value.split(",");
+        if (lengths.length != 2) {
+            throw new IllegalArgumentException("Invalid --oil");
+        }
+        try {
+            return new KeyOil(
+                Integer.parseInt(lengths[0].trim()),
+                Integer.parseInt(lengths[1].trim())
+            );
+        }
+        catch (RuntimeException e) {
+            throw new IllegalArgumentException("Invalid --oil");
+        }
+    }
+
+    private static Key readKey(
+        Map<String, String> options,
+        InputStream in
+    ) throws IOException,
+             InvalidKeyException {
+        final byte[] bytes = (options.containsKey("key"))
+                             ? Files.readAllBytes(Paths.get(options.get("key")))
+                             : readAll(in);
+        // Trailing line feeds of a piped or edited key aren't part of it
+        int length = bytes.length;
+        while (length > 0 && (bytes[length - 1] == '\n' || bytes[length - 1] == '\r')) {
+            length--;
+        }
+        return Key.fromByteBuffer(ByteBuffer.wrap(bytes, 0, length));
+    }
+
+    /**
+     * Replaces the key file atomically, so it is never left half written, or
+     * writes the key into the output if it was read from the input.
+     */
+    private static void writeKey(
+        Key key,
+        Map<String, String> options,
+        PrintStream out
+    ) throws IOException {
+        if (!options.containsKey("key")) {
+            key.writeTo(out);
+            out.println();
+            out.flush();
+            return;
+        }
+        final Path path = Paths.get(options.get("key")).toAbsolutePath();
+        final Path temporary = Files.createTempFile(path.getParent(), ".key", ".tmp");
+        try {
+            try (OutputStream os = new BufferedOutputStream(Files.newOutputStream(temporary))) {
+                key.writeTo(os);
+            }
+            Files.move(
+                temporary,
+                path,
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE
+            );
+        }
+        finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[8192];
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            baos.write(buffer, 0, read);
+        }
+        return baos.toByteArray();
+    }
+
+    private static String stripLineFeed(String data) {
+        if (data.endsWith("\r\n")) {
+            return data.substring(0, data.length() - 2);
+        }
+        if (data.endsWith("\n")) {
+            return data.substring(0, data.length() - 1);
+        }
+        return data;
+    }
+
+    private PasswordKeyCli() {}
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import javax.crypto.SecretKey;
+
+/**
+ * AES or HMAC key whose bytes are stored in a {@link SecretBuffer}.<br> The
+ * key can be closed as soon as the ciphers that use it are initialized,
+ * closing it zeroes the buffer. Every cipher or MAC initialized with the key
+ * takes a copy of its bytes with {@link #getEncoded()} and keeps its own key
+ * schedule, which this class can't reach, so they stay on the heap until the
+ * cipher is collected, ciphers should be kept only as long as they are used.
+ *
+ * @author Tobias Briones
+ * @see Core
+ */
+final class BufferedSecretKey implements SecretKey, AutoCloseable {
+    private static final long serialVersionUID = -2417094650312286615L;
+    private final String algorithm;
+    private final transient SecretBuffer buffer;
+
+    /**
+     * Moves the given key bytes into a new buffer, the array is zeroed.
+     */
+    BufferedSecretKey(byte[] key, String algorithm) {
+        this.algorithm = algorithm;
+        this.buffer = SecretBuffer.take(key);
+    }
+
+    @Override
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    @Override
+    public String getFormat() {
+        return "RAW";
+    }
+
+    /**
+     * @return a copy of the key bytes on the heap, the caller should zero it
+     * when it's no longer needed.
+     */
+    @Override
+    public byte[] getEncoded() {
+        final byte[] encoded = new byte[buffer.length()];
+        buffer.get(0, encoded, 0, encoded.length);
+        return encoded;
+    }
+
+    @Override
+    public void destroy() {
+        buffer.close();
+    }
+
+    @Override
+    public boolean isDestroyed() {
+        return buffer.isClosed();
+    }
+
+    @Override
+    public void close() {
+        destroy();
+    }
+}
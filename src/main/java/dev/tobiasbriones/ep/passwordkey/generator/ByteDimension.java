@@ -0,0 +1,256 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Dimension of the keys of version {@link Key#VERSION_BYTE_DIMENSION}.<br> The
+ * dimension is made of bytes: the data is kept as its UTF-8 bytes and the oil
+ * is made of random byte symbols of the same text type as the data, so each
+ * symbol of the dimension takes exactly one byte of the cipher text.
+ *
+ * @author Tobias Briones
+ * @see DimensionLayout
+ */
+final class ByteDimension {
+    private static final int STREAM_CHUNK_LENGTH = 1 << 16;
+    /**
+     * Generates the full dimension made of the dimension of the hashed user
+     * password followed by the dimension of the data.
+     */
+    static byte[] generate(
+        byte[] hashedUserPassword,
+        KeyOil userPasswordOil,
+        byte[] data,
+        KeyOil dimensionLengthOil
+    ) {
+        final DimensionLayout userPasswordLayout = DimensionLayout.of(
+            userPasswordOil,
+            true
+        );
+        final DimensionLayout dataLayout = DimensionLayout.of(
+            dimensionLengthOil,
+            false
+        );
+        final long userPasswordLength = userPasswordLayout.lengthOf(
+            hashedUserPassword.length);
+        final long dataLength = dataLayout.lengthOf(data.length);
+        final byte[] dimension = new byte[checkedLength(userPasswordLength + dataLength)];
+        final Random random = RandomnessProvider.newRandom();
+        write(
+            hashedUserPassword,
+            userPasswordLayout,
+            Core.getTextType(hashedUserPassword),
+            dimension,
+            0,
+            0,
+            hashedUserPassword.length,
+            random
+        );
+        if (dataLength < ParallelDimension.PARALLEL_THRESHOLD) {
+            write(
+                data,
+                dataLayout,
+                Core.getTextType(data),
+                dimension,
+                (int) userPasswordLength,
+                0,
+                data.length,
+                random
+            );
+        }
+        else {
+            ParallelDimension.generate(
+                data,
+                dataLayout,
+                Core.getTextType(data),
+                dimension,
+                (int) userPasswordLength
+            );
+        }
+        return dimension;
+    }
+
+    /**
+     * Removes the oil from the region of the dimension from {@code offset} to
+     * {@code offset + length - 1}, the region is read sequentially, so it's
+     * meant for small regions like the one of the user password.
+     *
+     * @return the data stored in that region.
+     */
+    static byte[] retrieveData(
+        byte[] dimension,
+        int offset,
+        int length,
+        KeyOil dimensionLengthOil,
+        boolean keepConstantFactor
+    ) {
+        final DimensionLayout layout = DimensionLayout.of(
+            dimensionLengthOil,
+            keepConstantFactor
+        );
+        final byte[] data = new byte[(int) layout.dataLengthOf(length)];
+        read(ByteBuffer.wrap(dimension), offset, layout, data, 0, data.length);
+        return data;
+    }
+
+    /**
+     * Removes the oil from the region of the decrypted dimension from {@code
+     * offset} to {@code offset + length - 1}.
+     *
+     * @return the data stored in that region.
+     */
+    static byte[] retrieveData(
+        SecretBuffer dimension,
+        int offset,
+        int length,
+        KeyOil dimensionLengthOil,
+        boolean keepConstantFactor
+    ) {
+        final DimensionLayout layout = DimensionLayout.of(
+            dimensionLengthOil,
+            keepConstantFactor
+        );
+        return retrieveData(dimension, offset, length, layout, (int) layout.dataLengthOf(length));
+    }
+
+    /**
+     * Removes the oil from the region of the decrypted dimension that starts
+     * at {@code offset} and stores data of the given length, like the one
+     * recorded by the header of a key.
+     *
+     * @return the data stored in that region.
+     */
+    static byte[] retrieveData(
+        SecretBuffer dimension,
+        int offset,
+        int dataLength,
+        KeyOil dimensionLengthOil
+    ) {
+        final DimensionLayout layout = DimensionLayout.of(dimensionLengthOil, false);
+        return retrieveData(
+            dimension,
+            offset,
+            (int) layout.lengthOf(dataLength),
+            layout,
+            dataLength
+        );
+    }
+
+    private static byte[] retrieveData(
+        SecretBuffer dimension,
+        int offset,
+        int length,
+        DimensionLayout layout,
+        int dataLength
+    ) {
+        final byte[] data = new byte[dataLength];
+        final ByteBuffer view = dimension.view();
+        if (length < ParallelDimension.PARALLEL_THRESHOLD) {
+            read(view, offset, layout, data, 0, data.length);
+        }
+        else {
+            ParallelDimension.retrieveData(view, offset, layout, data);
+        }
+        return data;
+    }
+
+    /**
+     * Writes the dimension of the data from {@code from} to {@code to - 1}
+     * into its own region of the dimension that starts at {@code offset}.
+     */
+    static void write(
+        byte[] data,
+        DimensionLayout layout,
+        int textType,
+        byte[] dimension,
+        int offset,
+        int from,
+        int to,
+        Random random
+    ) {
+        final int start = offset + (int) layout.lengthOf(from);
+        final int end = offset + (int) layout.lengthOf(to);
+        Core.randomSymbols(dimension, start, end - start, textType, random);
+        int cursor = offset + (int) layout.offsetOf(from);
+        for (int i = from; i < to; i++) {
+            dimension[cursor] = data[i];
+            cursor += layout.positiveOilAt(i) + 1 + layout.negativeOilAt(i + 1);
+        }
+    }
+
+    /**
+     * Writes the dimension of the data into the stream chunk by chunk, so only
+     * a chunk of the dimension is held in memory whatever its length is.
+     */
+    static void write(
+        byte[] data,
+        DimensionLayout layout,
+        int textType,
+        OutputStream os,
+        Random random
+    ) throws IOException {
+        final long length = layout.lengthOf(data.length);
+        final byte[] chunk = new byte[(int) Math.min(length, STREAM_CHUNK_LENGTH)];
+        long position = (data.length == 0) ? length : layout.offsetOf(0);
+        int i = 0;
+        for (long start = 0; start < length; start += chunk.length) {
+            final int chunkLength = (int) Math.min(chunk.length, length - start);
+            final long end = start + chunkLength;
+            Core.randomSymbols(chunk, 0, chunkLength, textType, random);
+            while (position < end) {
+                chunk[(int) (position - start)] = data[i];
+                position += layout.positiveOilAt(i) + 1 + layout.negativeOilAt(i + 1);
+                i++;
+                if (i == data.length) {
+                    position = length;
+                }
+            }
+            os.write(chunk, 0, chunkLength);
+        }
+        Arrays.fill(chunk, (byte) 0);
+    }
+
+    /**
+     * Reads the data from {@code from} to {@code to - 1} from the dimension
+     * that starts at {@code offset}.
+     */
+    static void read(
+        ByteBuffer dimension,
+        int offset,
+        DimensionLayout layout,
+        byte[] data,
+        int from,
+        int to
+    ) {
+        int cursor = offset + (int) layout.offsetOf(from);
+        for (int i = from; i < to; i++) {
+            data[i] = dimension.get(cursor);
+            cursor += layout.positiveOilAt(i) + 1 + layout.negativeOilAt(i + 1);
+        }
+    }
+
+    private static int checkedLength(long length) {
+        if (length > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Dimension too large: " + length);
+        }
+        return (int) length;
+    }
+
+    private ByteDimension() {}
+}
@@ -12,209 +12,734 @@
 
 package dev.tobiasbriones.ep.passwordkey.generator;
 
+import dev.tobiasbriones.ep.passwordkey.simd.TextScan;
+
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
+import javax.crypto.CipherInputStream;
+import javax.crypto.CipherOutputStream;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
 import javax.crypto.SecretKey;
 import javax.crypto.SecretKeyFactory;
 import javax.crypto.spec.IvParameterSpec;
 import javax.crypto.spec.PBEKeySpec;
-import javax.crypto.spec.SecretKeySpec;
+import javax.security.auth.DestroyFailedException;
+import javax.security.auth.Destroyable;
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.nio.charset.StandardCharsets;
 import java.security.AlgorithmParameters;
-import java.security.SecureRandom;
-import java.security.spec.KeySpec;
-import java.util.Base64;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.Random;
 
 final class Core {
-    private static final int TEXT_TYPE_NUMERIC = 0;
-    private static final int TEXT_TYPE_SIMPLE_MSG = 1;
-    private static final int TEXT_TYPE_COMMON = 2;
-    private static final int TEXT_TYPE_ANY = 3;
-    private static final char[] SYMBOLS = {
-        '0', '1', '2', '3', '4', '5', '6', '7', '8', '9',
-        'A', 'B', 'C', 'D', 'E', 'F', 'G', 'H', 'I', 'J',
-        'K', 'L', 'M', 'N', 'O', 'P', 'Q', 'R', 'S', 'T',
-        'U', 'V', 'W', 'X', 'Y', 'Z', 'a', 'b', 'c', 'd',
-        'e', 'f', 'g', 'h', 'i', 'j', 'k', 'l', 'm', 'n',
-        'o', 'p', 'q', 'r', 's', 't', 'u', 'v', 'w', 'x',
-        'y', 'z', '�', '�', '�',
-        '�', '?', '�', '@', '[', ']', '^', '_', '{', '|',
-        '}', '~', '!', '"', '#', '$', '%', '&', '(', ')',
-        '*', '+', ',', '-', '.', '/', ':', ';', '<', '=',
-        '>', '`', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '�', '�', '�', '�', '�', '�',
-        '�', '�', '�', '�', '', '', '', '', '', '',
-        '', '', '', '', '', '', '', '',
-        };
-    private static final StringBuilder SB = new StringBuilder();
+    static final int TEXT_TYPE_NUMERIC = 0;
+    static final int TEXT_TYPE_SIMPLE_MSG = 1;
+    static final int TEXT_TYPE_COMMON = 2;
+    static final int TEXT_TYPE_ANY = 3;
+    private static final byte[] SYMBOLS = createSymbols();
+    private static final int NUMERIC_SYMBOLS = 10;
+    private static final int SIMPLE_MSG_SYMBOLS = 62;
+    private static final int COMMON_SYMBOLS = 95;
+    private static final int ANY_SYMBOLS = 256;
+    private static final int RANDOM_BUFFER_SIZE = 4096;
+    static final int BLOCK_SIZE = 16;
     private static final int ITERATION_COUNT = 65536;
     private static final int KEY_LENGTH = 128;
-    private static final int SALT_SIZE = 128;
+    static final int SALT_SIZE = 128;
     private static final String ALGORITHM = "AES";
+    private static final String KEY_FACTORY_ALGORITHM = "PBKDF2WithHmacSHA256";
     private static final String TRANSFORMATION = "AES/CBC/PKCS5Padding";
+    private static final String BLOCK_TRANSFORMATION = "AES/CBC/NoPadding";
+    private static final String WRAP_TRANSFORMATION = "AESWrap";
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final byte[] HEADER_MAC_KEY_LABEL =
+        "password-key header".getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_ITERATION_COUNT = 1 << 24;
+
+    private static byte[] createSymbols() {
+        // Digits, letters, the rest of printable ASCII and then any other byte
+        final byte[] symbols = new byte[256];
+        int i = 0;
+        for (char c = '0'; c <= '9'; c++) {
+            symbols[i++] = (byte) c;
+        }
+        for (char c = 'A'; c <= 'Z'; c++) {
+            symbols[i++] = (byte) c;
+        }
+        for (char c = 'a'; c <= 'z'; c++) {
+            symbols[i++] = (byte) c;
+        }
+        for (char c = ' '; c <= '~'; c++) {
+            if (!Character.isLetterOrDigit(c)) {
+                symbols[i++] = (byte) c;
+            }
+        }
+        for (int b = 0; b < 256; b++) {
+            if (b < ' ' || b > '~') {
+                symbols[i++] = (byte) b;
+            }
+        }
+        return symbols;
+    }
 
-    private static SecretKey getSecretKey(String password, byte[] salt) throws Exception {
-        final SecretKeyFactory factory = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA256");
-        final KeySpec keySpec = new PBEKeySpec(
-            password.toCharArray(),
+    /**
+     * Derives the key of the password, it's stored out of the heap and must
+     * be closed once the ciphers that use it are initialized.
+     */
+    private static BufferedSecretKey getSecretKey(
+        String password,
+        byte[] salt,
+        int iterationCount
+    ) throws Exception {
+        final SecretKeyFactory factory = SecretKeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
+        final char[] passwordChars = password.toCharArray();
+        final PBEKeySpec keySpec = new PBEKeySpec(
+            passwordChars,
             salt,
-            ITERATION_COUNT,
+            iterationCount,
             KEY_LENGTH
         );
-        final SecretKey tmp = factory.generateSecret(keySpec);
-        return new SecretKeySpec(tmp.getEncoded(), ALGORITHM);
+        final SecretKey tmp;
+        Arrays.fill(passwordChars, '\0');
+        try {
+            final CpuWorkLimiter.Permit permit = CpuWorkLimiter.acquire();
+            try {
+                tmp = factory.generateSecret(keySpec);
+            }
+            finally {
+                permit.release();
+            }
+        }
+        finally {
+            keySpec.clearPassword();
+        }
+        return toBufferedKey(tmp, ALGORITHM);
+    }
+
+    /**
+     * Moves the bytes of a key created by a provider into a {@link
+     * BufferedSecretKey}, the copy taken is zeroed and the key is destroyed
+     * if the provider supports it.
+     */
+    static BufferedSecretKey toBufferedKey(SecretKey key, String algorithm) {
+        final BufferedSecretKey bufferedKey = new BufferedSecretKey(key.getEncoded(), algorithm);
+        destroy(key);
+        return bufferedKey;
+    }
+
+    private static void destroy(Destroyable key) {
+        try {
+            key.destroy();
+        }
+        catch (DestroyFailedException e) {
+            // The PBKDF2 and AES keys of the JDK can't be destroyed, their
+            // bytes stay on the heap until they are collected
+        }
+    }
+
+    /**
+     * @return a header of a new key with the key derivation parameters in use
+     * and no tag, see {@link #authenticateHeader}.
+     */
+    static KeyHeader newHeader(KeyOil oil, int dimensionLength, int dataLength) {
+        return new KeyHeader(
+            oil,
+            KEY_FACTORY_ALGORITHM,
+            ITERATION_COUNT,
+            KEY_LENGTH,
+            dimensionLength,
+            dataLength,
+            null
+        );
+    }
+
+    /**
+     * @return the length of the line of the header of a new key, see {@link
+     * #newHeader(KeyOil, int, int)}.
+     */
+    static long getHeaderLength(KeyOil oil, long dimensionLength, long dataLength) {
+        return KeyHeader.lengthOf(
+            oil,
+            KEY_FACTORY_ALGORITHM,
+            ITERATION_COUNT,
+            KEY_LENGTH,
+            dimensionLength,
+            dataLength
+        );
+    }
+
+    /**
+     * Checks the key derivation parameters of the header are supported, so a
+     * key that can't be opened is rejected before deriving any key.
+     */
+    static void checkKdf(KeyHeader header) throws InvalidKeyException {
+        if (!KEY_FACTORY_ALGORITHM.equals(header.kdfAlgorithm)
+            || header.kdfKeyLength != KEY_LENGTH
+            || header.kdfIterations < 1
+            || header.kdfIterations > MAX_ITERATION_COUNT) {
+            throw new InvalidKeyException(
+                "unsupported key derivation " + header.kdfAlgorithm
+                + " of " + header.kdfIterations + " iterations and "
+                + header.kdfKeyLength + " bits"
+            );
+        }
+    }
+
+    /**
+     * @return the iterations the keys of the key are derived with.
+     */
+    static int getIterationCount(Key key) {
+        return (key.header == null) ? ITERATION_COUNT : key.header.kdfIterations;
+    }
+
+    /**
+     * @return a copy of the header with the tag of the key of the given
+     * version and initialization vector, see {@link KeyHeader}.
+     */
+    static KeyHeader authenticateHeader(
+        SecretKey dimensionKey,
+        int version,
+        KeyHeader header,
+        byte[] iv
+    ) throws Exception {
+        final Mac mac = Mac.getInstance(MAC_ALGORITHM);
+        final byte[] macKeyBytes;
+        // The dimension key is used by AES already, so a key of its own is
+        // derived to authenticate
+        mac.init(dimensionKey);
+        macKeyBytes = mac.doFinal(HEADER_MAC_KEY_LABEL);
+        try (BufferedSecretKey macKey = new BufferedSecretKey(macKeyBytes, MAC_ALGORITHM)) {
+            mac.init(macKey);
+        }
+        return header.withMac(mac.doFinal(header.getAuthenticatedBytes(version, iv)));
+    }
+
+    private static void verifyHeader(Key key, SecretKey dimensionKey) throws Exception {
+        final KeyHeader authenticated = authenticateHeader(
+            dimensionKey,
+            key.version,
+            key.header,
+            key.iv
+        );
+        if (!MessageDigest.isEqual(authenticated.mac, key.header.mac)) {
+            throw new InvalidKeyException("the header doesn't authenticate");
+        }
+    }
+
+    /**
+     * Looks up the JCA providers and seeds the secure random generator, the
+     * first key pays for them otherwise.
+     */
+    static void warmUp() throws Exception {
+        SecretKeyFactory.getInstance(KEY_FACTORY_ALGORITHM);
+        Cipher.getInstance(TRANSFORMATION);
+        Cipher.getInstance(BLOCK_TRANSFORMATION);
+        Cipher.getInstance(WRAP_TRANSFORMATION);
+        Mac.getInstance(MAC_ALGORITHM);
+        generateSalt();
     }
 
-    private static byte[] generateSalt() {
-        final SecureRandom secureRandom = new SecureRandom();
+    static byte[] generateSalt() {
         final byte[] salt = new byte[SALT_SIZE];
-        secureRandom.nextBytes(salt);
+        RandomnessProvider.newRandom().nextBytes(salt);
         return salt;
     }
 
-    private static int getCharIndex(char c) {
-        for (int i = 0; i < SYMBOLS.length; i++) {
-            if (SYMBOLS[i] == c) {
-                return i;
+    /**
+     * @return a new random key to encrypt a dimension with, see {@link
+     * #wrapKey(SecretKey, String, byte[])}.
+     */
+    static BufferedSecretKey generateDataKey() throws Exception {
+        final KeyGenerator generator = KeyGenerator.getInstance(ALGORITHM);
+        generator.init(KEY_LENGTH, RandomnessProvider.newRandom());
+        return toBufferedKey(generator.generateKey(), ALGORITHM);
+    }
+
+    /**
+     * Wraps the data key for an owner under a key derived from the password
+     * and the salt of the key. The wrapping carries an integrity check, so a
+     * wrong password is detected when unwrapping without decrypting the
+     * dimension.
+     */
+    static Key.Recipient wrapKey(
+        SecretKey dataKey,
+        String password,
+        byte[] salt
+    ) throws Exception {
+        return wrapKey(dataKey, password, salt, ITERATION_COUNT);
+    }
+
+    /**
+     * Wraps the data key for an owner of a key whose keys are derived with
+     * the given salt and iterations.
+     */
+    static Key.Recipient wrapKey(
+        SecretKey dataKey,
+        String password,
+        byte[] salt,
+        int iterationCount
+    ) throws Exception {
+        final Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        try (BufferedSecretKey secretKey = getSecretKey(password, salt, iterationCount)) {
+            cipher.init(Cipher.WRAP_MODE, secretKey);
+        }
+        return new Key.Recipient(salt, cipher.wrap(dataKey));
+    }
+
+    /**
+     * Returns the key the dimension of the key is encrypted under: the data
+     * key unwrapped by the first recipient the password opens, or the key
+     * derived from the password if the key has no recipients. The header of
+     * the key, if any, is verified with it. It must be closed when it's no
+     * longer needed.
+     */
+    static BufferedSecretKey getDimensionKey(Key key, String password) throws Exception {
+        final BufferedSecretKey dimensionKey = (key.recipients.length == 0)
+                                               ? getSecretKey(
+                                                   password,
+                                                   key.salt,
+                                                   getIterationCount(key)
+                                               )
+                                               : unwrapKey(key, password).dataKey;
+        if (key.header != null) {
+            try {
+                verifyHeader(key, dimensionKey);
+            }
+            catch (Exception e) {
+                dimensionKey.close();
+                throw e;
             }
         }
-        return -1;
+        return dimensionKey;
     }
 
-    static int getTextType(String text) {
-        boolean hasNumericText = false;
-        boolean hasSimpleMSGText = false;
-        boolean hasCommonText = false;
-        boolean hasAnyText = false;
-        int i = -1;
-        for (char c : SYMBOLS) {
-            if (text.contains(String.valueOf(c))) {
-                i = getCharIndex(c);
-                if (i == -1) {
-                    continue;
-                }
-                if (i <= 9) {
-                    hasNumericText = true;
-                }
-                else if (i <= 64) {
-                    hasNumericText = true;
-                    hasSimpleMSGText = true;
-                }
-                else if (i <= 100) {
-                    hasNumericText = true;
-                    hasSimpleMSGText = true;
-                    hasCommonText = true;
-                }
-                else {
-                    hasNumericText = true;
-                    hasSimpleMSGText = true;
-                    hasCommonText = true;
-                    hasAnyText = true;
-                    break;
+    /**
+     * Unwraps the data key of a key of version {@link Key#VERSION_ENVELOPE}
+     * with the first recipient the password opens. The password is derived
+     * once for every salt, and the owners of a key share its salt, so a key
+     * with any number of owners takes one key derivation.
+     */
+    static UnwrappedKey unwrapKey(Key key, String password) throws Exception {
+        final Key.Recipient[] recipients = key.recipients;
+        for (int i = 0; i < recipients.length; i++) {
+            if (hasSaltBefore(recipients, i)) {
+                continue;
+            }
+            try (
+                BufferedSecretKey secretKey = getSecretKey(
+                    password,
+                    recipients[i].salt,
+                    getIterationCount(key)
+                )
+            ) {
+                for (int j = i; j < recipients.length; j++) {
+                    final BufferedSecretKey dataKey;
+                    if (!Arrays.equals(recipients[j].salt, recipients[i].salt)) {
+                        continue;
+                    }
+                    dataKey = unwrapKey(recipients[j], secretKey);
+                    if (dataKey != null) {
+                        return new UnwrappedKey(j, dataKey);
+                    }
                 }
             }
         }
-        if (hasAnyText) {
-            return TEXT_TYPE_ANY;
+        throw new InvalidKeyException();
+    }
+
+    /**
+     * @return the salt the data key of a key of version {@link
+     * Key#VERSION_ENVELOPE} is wrapped with for a new owner.
+     */
+    static byte[] getRecipientSalt(Key key) {
+        // Keys of the first envelope version have a salt per owner, any of
+        // them works
+        return key.recipients[0].salt;
+    }
+
+    private static boolean hasSaltBefore(Key.Recipient[] recipients, int index) {
+        for (int i = 0; i < index; i++) {
+            if (Arrays.equals(recipients[i].salt, recipients[index].salt)) {
+                return true;
+            }
         }
-        if (hasCommonText) {
-            return TEXT_TYPE_COMMON;
+        return false;
+    }
+
+    /**
+     * @return the data key wrapped by the recipient, or {@code null} if it's
+     * wrapped under another key.
+     */
+    private static BufferedSecretKey unwrapKey(
+        Key.Recipient recipient,
+        SecretKey secretKey
+    ) throws Exception {
+        final Cipher cipher = Cipher.getInstance(WRAP_TRANSFORMATION);
+        final SecretKey dataKey;
+        cipher.init(Cipher.UNWRAP_MODE, secretKey);
+        try {
+            dataKey = (SecretKey) cipher.unwrap(
+                recipient.wrappedKey,
+                ALGORITHM,
+                Cipher.SECRET_KEY
+            );
         }
-        if (hasSimpleMSGText) {
-            return TEXT_TYPE_SIMPLE_MSG;
+        catch (java.security.InvalidKeyException e) {
+            // Wrapped for another owner
+            return null;
         }
-        if (hasNumericText) {
-            return TEXT_TYPE_NUMERIC;
+        return toBufferedKey(dataKey, ALGORITHM);
+    }
+
+    static int getTextType(byte[] data) {
+        switch (TextScan.textClass(data)) {
+            case TextScan.DIGITS:
+                return TEXT_TYPE_NUMERIC;
+            case TextScan.ALPHANUMERIC:
+                return TEXT_TYPE_SIMPLE_MSG;
+            case TextScan.PRINTABLE:
+                return TEXT_TYPE_COMMON;
+            case TextScan.ANY:
+            default:
+                return TEXT_TYPE_ANY;
         }
-        return TEXT_TYPE_ANY;
     }
 
-    private static char randomSymbol(int textType) {
-        final int range;
+    private static int getSymbolRange(int textType) {
         switch (textType) {
-            case TEXT_TYPE_ANY:
-                range = SYMBOLS.length - 1;
-                break;
             case TEXT_TYPE_COMMON:
-                range = 100;
-                break;
+                return COMMON_SYMBOLS;
             case TEXT_TYPE_SIMPLE_MSG:
-                range = 64;
-                break;
+                return SIMPLE_MSG_SYMBOLS;
             case TEXT_TYPE_NUMERIC:
-                range = 9;
-                break;
+                return NUMERIC_SYMBOLS;
+            case TEXT_TYPE_ANY:
             default:
-                range = SYMBOLS.length - 1;
-                break;
+                return ANY_SYMBOLS;
         }
-        return SYMBOLS[(int) (Math.random() * range)];
     }
 
-    private static String randomText(int length) {
-        return randomText(length, TEXT_TYPE_ANY);
+    /**
+     * Writes uniformly distributed random symbols of the given text type into
+     * the given array with the given source of randomness, so it can be called
+     * from many threads at once.
+     */
+    static void randomSymbols(
+        byte[] output,
+        int offset,
+        int length,
+        int textType,
+        Random random
+    ) {
+        final int range = getSymbolRange(textType);
+        final int limit = ANY_SYMBOLS - ANY_SYMBOLS % range;
+        final byte[] buffer = new byte[Math.min(length, RANDOM_BUFFER_SIZE)];
+        final int end = offset + length;
+        int i = offset;
+        while (i < end) {
+            random.nextBytes(buffer);
+            for (int j = 0; j < buffer.length && i < end; j++) {
+                final int value = buffer[j] & 0xFF;
+                if (value < limit) {
+                    output[i] = SYMBOLS[value % range];
+                    i++;
+                }
+            }
+        }
     }
 
-    static String randomText(int length, int textType) {
-        final String randomText;
-        SB.setLength(0);
-        for (int i = 0; i < length; i++) {
-            SB.append(randomSymbol(textType));
+    /**
+     * Encrypts the dimension of a key of the given version and header, the
+     * header of the encryption has its tag.
+     */
+    static Encryption encrypt(
+        byte[] input,
+        String password,
+        int version,
+        KeyHeader header
+    ) throws Exception {
+        final byte[] salt = generateSalt();
+        try (BufferedSecretKey secretKey = getSecretKey(password, salt, ITERATION_COUNT)) {
+            return encrypt(input, salt, secretKey, version, header);
         }
-        randomText = SB.toString();
-        SB.setLength(0);
-        return randomText;
     }
 
-    static Encryption encrypt(String text, String password) throws Exception {
-        final byte[] salt = generateSalt();
-        final SecretKey secretKey = getSecretKey(password, salt);
+    /**
+     * Encrypts under a data key instead of a key derived from a password, the
+     * salt of the encryption is {@code null}.
+     */
+    static Encryption encrypt(
+        byte[] input,
+        SecretKey dataKey,
+        int version,
+        KeyHeader header
+    ) throws Exception {
+        return encrypt(input, null, dataKey, version, header);
+    }
+
+    private static Encryption encrypt(
+        byte[] input,
+        byte[] salt,
+        SecretKey secretKey,
+        int version,
+        KeyHeader header
+    ) throws Exception {
         final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
-        final byte[] input = text.getBytes(StandardCharsets.UTF_8);
         final byte[] encrypted;
         final byte[] iv;
         final AlgorithmParameters params;
-        cipher.init(Cipher.ENCRYPT_MODE, secretKey);
+        cipher.init(Cipher.ENCRYPT_MODE, secretKey, RandomnessProvider.newRandom());
         params = cipher.getParameters();
         iv = params.getParameterSpec(IvParameterSpec.class).getIV();
         encrypted = cipher.doFinal(input);
-        return new Encryption(salt, encrypted, iv);
+        return new Encryption(
+            salt,
+            authenticateHeader(secretKey, version, header, iv),
+            encrypted,
+            iv
+        );
     }
 
-    static String decrypt(
-        String encryptedText,
+    /**
+     * Prepares an encryption whose cipher text is written into a stream, so
+     * the input doesn't have to be held in memory.
+     */
+    static StreamEncryption streamEncryption(
         String password,
-        byte[] salt,
+        int version,
+        KeyHeader header
+    ) throws Exception {
+        final byte[] salt = generateSalt();
+        final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        final byte[] iv;
+        final KeyHeader authenticatedHeader;
+        try (BufferedSecretKey secretKey = getSecretKey(password, salt, ITERATION_COUNT)) {
+            cipher.init(Cipher.ENCRYPT_MODE, secretKey, RandomnessProvider.newRandom());
+            iv = cipher.getParameters().getParameterSpec(IvParameterSpec.class).getIV();
+            authenticatedHeader = authenticateHeader(secretKey, version, header, iv);
+        }
+        return new StreamEncryption(salt, authenticatedHeader, iv, cipher);
+    }
+
+    static String decrypt(
+        byte[] encrypted,
+        SecretKey secretKey,
+        byte[] iv
+    ) throws Exception {
+        try (Decryption decryption = decryptBytes(encrypted, secretKey, iv)) {
+            final byte[] decrypted = new byte[decryption.length];
+            decryption.decrypted.get(0, decrypted, 0, decrypted.length);
+            try {
+                return new String(decrypted, StandardCharsets.UTF_8);
+            }
+            finally {
+                Arrays.fill(decrypted, (byte) 0);
+            }
+        }
+    }
+
+    /**
+     * Decrypts the input into a {@link SecretBuffer}, so the plain text stays
+     * out of the heap, the returned decryption must be closed.
+     */
+    static Decryption decryptBytes(
+        byte[] input,
+        SecretKey secretKey,
+        byte[] iv
+    ) throws Exception {
+        final SecretBuffer output = SecretBuffer.allocate(input.length);
+        try {
+            return new Decryption(
+                output,
+                ParallelDecryption.decrypt(input, output, secretKey, iv)
+            );
+        }
+        catch (Exception e) {
+            output.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Decrypts the text lazily, so only the characters that are read from the
+     * returned reader (or skipped) are decrypted.
+     */
+    static Reader decryptingReader(
+        byte[] encrypted,
+        SecretKey secretKey,
+        byte[] iv
+    ) throws Exception {
+        return new InputStreamReader(
+            decryptingStream(encrypted, secretKey, iv),
+            StandardCharsets.UTF_8
+        );
+    }
+
+    /**
+     * Decrypts the text lazily, so only the bytes that are read from the
+     * returned stream (or skipped) are decrypted.
+     */
+    static InputStream decryptingStream(
+        byte[] encrypted,
+        SecretKey secretKey,
         byte[] iv
     ) throws Exception {
-        final SecretKey secretKey = getSecretKey(password, salt);
         final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
         final IvParameterSpec ivParameterSpec = new IvParameterSpec(iv);
-        final byte[] input = Base64.getDecoder().decode(encryptedText);
-        final byte[] decrypted;
+        final InputStream input = new ByteArrayInputStream(encrypted);
         cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
-        decrypted = cipher.doFinal(input);
-        return new String(decrypted, StandardCharsets.UTF_8);
+        return new CipherInputStream(input, cipher);
+    }
+
+    /**
+     * Gives random access to the decrypted bytes of the text, only the blocks
+     * holding the requested bytes are decrypted.
+     */
+    static BlockDecryption blockDecryption(
+        byte[] encrypted,
+        SecretKey secretKey,
+        byte[] iv
+    ) throws Exception {
+        return new BlockDecryption(encrypted, secretKey, iv);
     }
 
     static final class Encryption {
         final byte[] salt;
+        final KeyHeader header;
+        final byte[] iv;
+        final byte[] encrypted;
+
+        Encryption(byte[] salt, KeyHeader header, byte[] encrypted, byte[] iv) {
+            this.salt = salt;
+            this.header = header;
+            this.iv = iv;
+            this.encrypted = encrypted;
+        }
+    }
+
+    static final class UnwrappedKey {
+        final int recipient;
+        final BufferedSecretKey dataKey;
+
+        UnwrappedKey(int recipient, BufferedSecretKey dataKey) {
+            this.recipient = recipient;
+            this.dataKey = dataKey;
+        }
+    }
+
+    static final class StreamEncryption {
+        final byte[] salt;
+        final KeyHeader header;
         final byte[] iv;
-        final String encryptedText;
+        private final Cipher cipher;
 
-        Encryption(byte[] salt, byte[] encrypted, byte[] iv) {
+        StreamEncryption(byte[] salt, KeyHeader header, byte[] iv, Cipher cipher) {
             this.salt = salt;
+            this.header = header;
+            this.iv = iv;
+            this.cipher = cipher;
+        }
+
+        /**
+         * @return a stream that encrypts what is written into it and writes
+         * the cipher text into the given stream, closing it writes the last
+         * block and closes the given stream.
+         */
+        OutputStream wrap(OutputStream os) {
+            return new CipherOutputStream(os, cipher);
+        }
+    }
+
+    static final class Decryption implements AutoCloseable {
+        final SecretBuffer decrypted;
+        final int length;
+
+        Decryption(SecretBuffer decrypted, int length) {
+            this.decrypted = decrypted;
+            this.length = length;
+        }
+
+        @Override
+        public void close() {
+            decrypted.close();
+        }
+    }
+
+    static final class BlockDecryption {
+        private final byte[] encrypted;
+        private final SecretKey secretKey;
+        private final byte[] iv;
+
+        BlockDecryption(byte[] encrypted, SecretKey secretKey, byte[] iv) {
+            this.encrypted = encrypted;
+            this.secretKey = secretKey;
             this.iv = iv;
-            this.encryptedText = Base64.getEncoder().encodeToString(encrypted);
+        }
+
+        /**
+         * @return the length of the plain text, it decrypts the last block to
+         * read its padding.
+         */
+        long length() throws Exception {
+            if (encrypted.length == 0 || encrypted.length % BLOCK_SIZE != 0) {
+                throw new IllegalBlockSizeException();
+            }
+            final byte[] lastBlock = decryptBlocks(
+                encrypted.length / BLOCK_SIZE - 1,
+                encrypted.length / BLOCK_SIZE
+            );
+            final int paddingLength = lastBlock[BLOCK_SIZE - 1] & 0xFF;
+            if (paddingLength < 1 || paddingLength > BLOCK_SIZE) {
+                throw new BadPaddingException();
+            }
+            return encrypted.length - paddingLength;
+        }
+
+        /**
+         * @return the decrypted bytes from {@code from} to {@code to - 1}.
+         */
+        byte[] read(long from, long to) throws Exception {
+            if (from < 0 || from >= to || to > encrypted.length) {
+                throw new IndexOutOfBoundsException(
+                    "Invalid range from " + from + " to " + to
+                );
+            }
+            final int firstBlock = (int) (from / BLOCK_SIZE);
+            final byte[] decrypted = decryptBlocks(
+                firstBlock,
+                (int) ((to - 1) / BLOCK_SIZE + 1)
+            );
+            final int offset = (int) (from - (long) firstBlock * BLOCK_SIZE);
+            return Arrays.copyOfRange(
+                decrypted,
+                offset,
+                offset + (int) (to - from)
+            );
+        }
+
+        private byte[] decryptBlocks(int from, int to) throws Exception {
+            // The previous block is the initialization vector of the first one
+            final Cipher cipher = Cipher.getInstance(BLOCK_TRANSFORMATION);
+            final IvParameterSpec ivParameterSpec = (from == 0)
+                                                    ? new IvParameterSpec(iv)
+                                                    : new IvParameterSpec(
+                                                        encrypted,
+                                                        (from - 1) * BLOCK_SIZE,
+                                                        BLOCK_SIZE
+                                                    );
+            cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
+            return cipher.doFinal(
+                encrypted,
+                from * BLOCK_SIZE,
+                (to - from) * BLOCK_SIZE
+            );
         }
     }
 
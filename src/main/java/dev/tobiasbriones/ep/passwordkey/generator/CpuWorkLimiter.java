@@ -0,0 +1,200 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounds how many CPU-heavy operations, the PBKDF2 derivation of the secret
+ * key and the BCrypt hashing and checking of the user password, run at the
+ * same time.<br> The rest of the operations wait in a fair queue, first come
+ * first served, and are rejected with {@link CpuWorkRejectedException} if
+ * they wait longer than the timeout, so a burst of requests makes the latency
+ * grow predictably instead of saturating every core.<br> By default, it
+ * allows as many operations as available processors and waits without a
+ * timeout.
+ *
+ * @author Tobias Briones
+ * @see MergeKeyGenerator
+ * @see MergeKeyOpener
+ */
+public final class CpuWorkLimiter {
+    private static volatile CpuWorkLimiter instance = new CpuWorkLimiter(
+        Runtime.getRuntime().availableProcessors(),
+        0
+    );
+
+    /**
+     * Replaces the limits, the operations already running or waiting keep
+     * the previous limits and metrics.
+     *
+     * @param permits       number of operations that run at the same time.
+     * @param timeoutMillis maximum time an operation waits to run, or 0 to
+     *                      wait without a timeout.
+     */
+    public static void configure(int permits, long timeoutMillis) {
+        if (permits < 1 || timeoutMillis < 0) {
+            throw new IllegalArgumentException("Invalid limits");
+        }
+        instance = new CpuWorkLimiter(permits, timeoutMillis);
+    }
+
+    /**
+     * @return the limiter in use.
+     */
+    public static CpuWorkLimiter get() {
+        return instance;
+    }
+
+    /**
+     * Waits for a permit of the limiter in use, it must be released in a
+     * {@code finally} block when the operation finishes.
+     */
+    static Permit acquire() {
+        return instance.acquirePermit();
+    }
+
+    private final Semaphore semaphore;
+    private final int permits;
+    private final long timeoutNanos;
+    private final AtomicLong acquired;
+    private final AtomicLong rejected;
+    private final AtomicLong totalWaitNanos;
+    private final AtomicLong maxWaitNanos;
+
+    private CpuWorkLimiter(int permits, long timeoutMillis) {
+        this.semaphore = new Semaphore(permits, true);
+        this.permits = permits;
+        this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        this.acquired = new AtomicLong();
+        this.rejected = new AtomicLong();
+        this.totalWaitNanos = new AtomicLong();
+        this.maxWaitNanos = new AtomicLong();
+    }
+
+    /**
+     * @return the number of operations that run at the same time.
+     */
+    public int getPermits() {
+        return permits;
+    }
+
+    /**
+     * @return the number of operations running now.
+     */
+    public int getActive() {
+        return permits - semaphore.availablePermits();
+    }
+
+    /**
+     * @return an estimate of the number of operations waiting now.
+     */
+    public int getQueueDepth() {
+        return semaphore.getQueueLength();
+    }
+
+    /**
+     * @return the number of operations that got to run.
+     */
+    public long getAcquired() {
+        return acquired.get();
+    }
+
+    /**
+     * @return the number of operations rejected because of the timeout.
+     */
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    /**
+     * @return the total time waited by the operations that got to run in
+     * nanoseconds.
+     */
+    public long getTotalWaitNanos() {
+        return totalWaitNanos.get();
+    }
+
+    /**
+     * @return the longest time waited by an operation that got to run in
+     * nanoseconds.
+     */
+    public long getMaxWaitNanos() {
+        return maxWaitNanos.get();
+    }
+
+    /**
+     * @return the average time waited by the operations that got to run in
+     * nanoseconds.
+     */
+    public double getAverageWaitNanos() {
+        final long count = acquired.get();
+        return (count == 0) ? 0 : totalWaitNanos.get() / (double) count;
+    }
+
+    @Override
+    public String toString() {
+        return "CpuWorkLimiter{"
+               + "permits=" + permits
+               + ", active=" + getActive()
+               + ", queueDepth=" + getQueueDepth()
+               + ", acquired=" + getAcquired()
+               + ", rejected=" + getRejected()
+               + ", averageWaitNanos=" + getAverageWaitNanos()
+               + ", maxWaitNanos=" + getMaxWaitNanos()
+               + '}';
+    }
+
+    private Permit acquirePermit() {
+        final long start = System.nanoTime();
+        final long waited;
+        try {
+            if (timeoutNanos == 0) {
+                semaphore.acquire();
+            }
+            else if (!semaphore.tryAcquire(timeoutNanos, TimeUnit.NANOSECONDS)) {
+                rejected.incrementAndGet();
+                throw new CpuWorkRejectedException(
+                    "No permit within " + TimeUnit.NANOSECONDS.toMillis(timeoutNanos) + " ms"
+                );
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            rejected.incrementAndGet();
+            throw new CpuWorkRejectedException("Interrupted while waiting for a permit");
+        }
+        waited = System.nanoTime() - start;
+        acquired.incrementAndGet();
+        totalWaitNanos.addAndGet(waited);
+        maxWaitNanos.accumulateAndGet(waited, Math::max);
+        return new Permit(semaphore);
+    }
+
+    /**
+     * A granted permit, releasing it lets the next operation run.
+     */
+    static final class Permit {
+        private final Semaphore semaphore;
+
+        private Permit(Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        void release() {
+            semaphore.release();
+        }
+    }
+}
@@ -0,0 +1,29 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+/**
+ * Thrown when a key can't be generated or opened because {@link
+ * CpuWorkLimiter} didn't let it run within its timeout, the request can be
+ * retried later.
+ *
+ * @author Tobias Briones
+ * @see CpuWorkLimiter
+ */
+public final class CpuWorkRejectedException extends RuntimeException {
+    private static final long serialVersionUID = -2146917046217465362L;
+
+    public CpuWorkRejectedException(String message) {
+        super(message);
+    }
+}
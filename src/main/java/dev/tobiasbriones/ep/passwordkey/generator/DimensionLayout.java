@@ -0,0 +1,138 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+/**
+ * Positions of the data characters inside a dimension.<br> Each character of
+ * the data is surrounded by negative oil before it and positive oil after it,
+ * their lengths are divided by the reduction factor on every character until
+ * they become zero and start over, so the position of any character only
+ * depends on its index.
+ *
+ * @author Tobias Briones
+ * @see MergeKeyGenerator
+ * @see MergeKeyOpener
+ */
+final class DimensionLayout {
+    static DimensionLayout of(KeyOil dimensionLengthOil, boolean keepConstantFactor) {
+        final int factor = (keepConstantFactor)
+                           ? 1
+                           : MergeKeyGenerator.DIMENSION_REDUCTION_FACTOR;
+        return new DimensionLayout(
+            getOilPeriod(dimensionLengthOil.negativeOilLength, factor),
+            getOilPeriod(dimensionLengthOil.positiveOilLength, factor)
+        );
+    }
+
+    private static int[] getOilPeriod(int oilLength, int factor) {
+        int periodLength = 0;
+        if (factor == 1 || oilLength == 0) {
+            return new int[] { oilLength };
+        }
+        for (int value = oilLength; value > 0; value /= factor) {
+            periodLength++;
+        }
+        final int[] period = new int[periodLength];
+        int value = oilLength;
+        for (int i = 0; i < periodLength; i++) {
+            period[i] = value;
+            value /= factor;
+        }
+        return period;
+    }
+
+    private static long[] getPrefixSums(int[] period) {
+        final long[] sums = new long[period.length + 1];
+        for (int i = 0; i < period.length; i++) {
+            sums[i + 1] = sums[i] + period[i];
+        }
+        return sums;
+    }
+
+    private final int[] negativeOilPeriod;
+    private final int[] positiveOilPeriod;
+    private final long[] negativeOilSums;
+    private final long[] positiveOilSums;
+
+    private DimensionLayout(int[] negativeOilPeriod, int[] positiveOilPeriod) {
+        this.negativeOilPeriod = negativeOilPeriod;
+        this.positiveOilPeriod = positiveOilPeriod;
+        this.negativeOilSums = getPrefixSums(negativeOilPeriod);
+        this.positiveOilSums = getPrefixSums(positiveOilPeriod);
+    }
+
+    /**
+     * @param index index of the character in the data.
+     *
+     * @return the length of the negative oil placed before that character.
+     */
+    int negativeOilAt(long index) {
+        return negativeOilPeriod[(int) (index % negativeOilPeriod.length)];
+    }
+
+    /**
+     * @param index index of the character in the data.
+     *
+     * @return the length of the positive oil placed after that character.
+     */
+    int positiveOilAt(long index) {
+        return positiveOilPeriod[(int) (index % positiveOilPeriod.length)];
+    }
+
+    /**
+     * @param index index of the character in the data.
+     *
+     * @return the position of that character in the dimension.
+     */
+    long offsetOf(long index) {
+        return lengthOf(index) + negativeOilAt(index);
+    }
+
+    /**
+     * @param dataLength length of the data.
+     *
+     * @return the length of the dimension generated for data of that length.
+     */
+    long lengthOf(long dataLength) {
+        return dataLength
+               + sumOf(negativeOilPeriod, negativeOilSums, dataLength)
+               + sumOf(positiveOilPeriod, positiveOilSums, dataLength);
+    }
+
+    /**
+     * @param dimensionLength length of the dimension.
+     *
+     * @return the length of the data stored in a dimension of that length.
+     */
+    long dataLengthOf(long dimensionLength) {
+        // Smallest length whose next character would be out of the dimension
+        long low = 0;
+        long high = dimensionLength;
+        while (low < high) {
+            final long middle = (low + high) >>> 1;
+            if (offsetOf(middle) < dimensionLength) {
+                low = middle + 1;
+            }
+            else {
+                high = middle;
+            }
+        }
+        return low;
+    }
+
+    private static long sumOf(int[] period, long[] sums, long count) {
+        final long cycles = count / period.length;
+        final int remainder = (int) (count % period.length);
+        return cycles * sums[period.length] + sums[remainder];
+    }
+}
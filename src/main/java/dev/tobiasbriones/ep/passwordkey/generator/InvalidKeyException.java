@@ -25,4 +25,11 @@ public final class InvalidKeyException extends Exception {
     public InvalidKeyException() {
         super("Invalid key");
     }
+
+    /**
+     * @param reason why the key is invalid.
+     */
+    public InvalidKeyException(String reason) {
+        super("Invalid key: " + reason);
+    }
 }
@@ -12,9 +12,22 @@
 
 package dev.tobiasbriones.ep.passwordkey.generator;
 
-import java.io.*;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.List;
 
 /**
  * A key is an object that contains important information most likely passwords
@@ -26,70 +39,612 @@ import java.util.Base64;
  * @see MergeKeyOpener
  */
 public final class Key {
+    /**
+     * Version of the keys whose dimension is UTF-8 encoded text, they are
+     * only opened for compatibility.
+     */
+    public static final int VERSION_TEXT_DIMENSION = 1;
 
+    /**
+     * Version of the keys whose dimension is made of bytes, it is the version
+     * of the keys generated by {@link MergeKeyGenerator}.
+     */
+    public static final int VERSION_BYTE_DIMENSION = 2;
+
+    /**
+     * Version of the keys whose byte dimension is encrypted once under a
+     * random data key, the data key is wrapped for every owner in a line
+     * {@code R:<salt>:<wrapped data key>} before the initialization vector,
+     * see {@link MergeKeyGenerator#generateSharedKey}. The owners of a key
+     * share its salt, so a password is derived once to try every owner.
+     */
+    public static final int VERSION_ENVELOPE = 3;
+    private static final String VERSION_HEADER = "PK:";
+    private static final String RECIPIENT_PREFIX = "R:";
+    private static final Recipient[] NO_RECIPIENTS = new Recipient[0];
+    private static final int BASE64_CHUNK_LENGTH = 3 * 1024;
+    private static final int READ_BUFFER_LENGTH = 8192;
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /**
+     * Reads a key from a stream, the stream is read once into a buffer on the
+     * heap that is parsed in place, see {@link #fromByteBuffer(ByteBuffer)}.
+     *
+     * @param is stream holding the key, it is closed.
+     *
+     * @return the key stored in the stream.
+     *
+     * @throws IOException         if the stream fails.
+     * @throws InvalidKeyException if the stream doesn't hold a valid key.
+     */
     public static Key fromInputStream(InputStream is) throws IOException,
                                                              InvalidKeyException {
+        byte[] buffer = new byte[READ_BUFFER_LENGTH];
+        int length = 0;
+        try (final InputStream input = is) {
+            int read;
+            while ((read = input.read(buffer, length, buffer.length - length)) != -1) {
+                length += read;
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, newBufferLength(buffer.length));
+                }
+            }
+        }
+        return fromByteBuffer(ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    /**
+     * Reads a key from a region of a file, the region is memory-mapped, so it
+     * is read without copying it into the heap.
+     *
+     * @param channel  channel of the file.
+     * @param position position of the key in the file.
+     * @param size     size of the key in bytes.
+     *
+     * @return the key stored in that region.
+     *
+     * @throws IOException         if the file can't be mapped.
+     * @throws InvalidKeyException if the region doesn't hold a valid key.
+     */
+    public static Key fromFileChannel(
+        FileChannel channel,
+        long position,
+        long size
+    ) throws IOException,
+             InvalidKeyException {
+        return fromByteBuffer(channel.map(
+            FileChannel.MapMode.READ_ONLY,
+            position,
+            size
+        ));
+    }
+
+    /**
+     * Reads a key from a whole file, see {@link #fromFileChannel(FileChannel,
+     * long, long)}.
+     *
+     * @param channel channel of the file.
+     *
+     * @return the key stored in that file.
+     *
+     * @throws IOException         if the file can't be mapped.
+     * @throws InvalidKeyException if the file doesn't hold a valid key.
+     */
+    public static Key fromFileChannel(FileChannel channel) throws IOException,
+                                                                  InvalidKeyException {
+        return fromFileChannel(channel, 0, channel.size());
+    }
+
+    /**
+     * Reads a key from the remaining bytes of the buffer which can be a
+     * direct or memory-mapped buffer, the Base64 lines are decoded in chunks
+     * of {@code BASE64_CHUNK_LENGTH} bytes into the byte arrays of the key,
+     * so only one chunk of a line is copied into the heap at a time. The
+     * position of the buffer is moved to its limit.
+     *
+     * @param buffer buffer holding the key.
+     *
+     * @return the key stored in the buffer.
+     *
+     * @throws InvalidKeyException if the buffer doesn't hold a valid key.
+     */
+    public static Key fromByteBuffer(ByteBuffer buffer) throws InvalidKeyException {
+        final int version;
+        KeyHeader header = null;
         final byte[] salt;
+        final Recipient[] recipients;
         final byte[] iv;
-        final String encryptedDimension;
-        try (
-            final BufferedReader br = new BufferedReader(new InputStreamReader(
-                is,
-                StandardCharsets.UTF_8
-            ))
-        ) {
-            String currentLine = br.readLine();
+        final byte[] encryptedDimension;
+        ByteBuffer currentLine = nextLine(buffer);
+        if (currentLine == null) {
+            throw new InvalidKeyException("empty input");
+        }
+        if (startsWith(currentLine, VERSION_HEADER)) {
+            version = parseVersion(currentLine);
+            currentLine = nextLine(buffer);
             if (currentLine == null) {
-                throw new InvalidKeyException();
+                throw new InvalidKeyException(
+                    (version == VERSION_ENVELOPE) ? "missing recipients" : "missing salt"
+                );
             }
-            try {
-                salt = Base64.getDecoder().decode(currentLine);
-                currentLine = br.readLine();
+        }
+        else {
+            version = VERSION_TEXT_DIMENSION;
+        }
+        if (version != VERSION_TEXT_DIMENSION && startsWith(currentLine, KeyHeader.PREFIX)) {
+            header = KeyHeader.parse(currentLine);
+            currentLine = nextLine(buffer);
+            if (currentLine == null) {
+                throw new InvalidKeyException(
+                    (version == VERSION_ENVELOPE) ? "missing recipients" : "missing salt"
+                );
+            }
+        }
+        if (version == VERSION_ENVELOPE) {
+            final List<Recipient> recipientList = new ArrayList<>();
+            while (startsWith(currentLine, RECIPIENT_PREFIX)) {
+                recipientList.add(parseRecipient(currentLine));
+                currentLine = nextLine(buffer);
                 if (currentLine == null) {
-                    throw new InvalidKeyException();
+                    throw new InvalidKeyException("missing initialization vector");
                 }
-                iv = Base64.getDecoder().decode(currentLine);
             }
-            catch (IllegalArgumentException e) {
-                throw new InvalidKeyException();
+            if (recipientList.isEmpty()) {
+                throw new InvalidKeyException("missing recipients");
             }
-            currentLine = br.readLine();
+            salt = null;
+            recipients = recipientList.toArray(NO_RECIPIENTS);
+            iv = decode(currentLine, "initialization vector");
+        }
+        else {
+            salt = decode(currentLine, "salt");
+            recipients = NO_RECIPIENTS;
+            currentLine = nextLine(buffer);
             if (currentLine == null) {
-                throw new InvalidKeyException();
+                throw new InvalidKeyException("missing initialization vector");
             }
-            encryptedDimension = currentLine;
-            currentLine = br.readLine();
-            if (currentLine != null) {
-                throw new InvalidKeyException();
+            iv = decode(currentLine, "initialization vector");
+        }
+        currentLine = nextLine(buffer);
+        if (currentLine == null) {
+            throw new InvalidKeyException("missing encrypted dimension");
+        }
+        encryptedDimension = decode(currentLine, "encrypted dimension");
+        currentLine = nextLine(buffer);
+        if (currentLine != null) {
+            throw new InvalidKeyException(
+                "unexpected content after the encrypted dimension"
+            );
+        }
+        if (version == VERSION_ENVELOPE) {
+            return new Key(recipients, header, iv, encryptedDimension);
+        }
+        return new Key(version, salt, header, iv, encryptedDimension);
+    }
+
+    private static ByteBuffer nextLine(ByteBuffer buffer) {
+        // Same line terminators as BufferedReader#readLine
+        if (!buffer.hasRemaining()) {
+            return null;
+        }
+        final int start = buffer.position();
+        final int limit = buffer.limit();
+        final ByteBuffer line = buffer.duplicate();
+        int end = start;
+        int next;
+        while (end < limit && buffer.get(end) != '\n' && buffer.get(end) != '\r') {
+            end++;
+        }
+        next = end;
+        if (end < limit) {
+            next++;
+            if (buffer.get(end) == '\r' && next < limit && buffer.get(next) == '\n') {
+                next++;
             }
         }
-        catch (IOException e) {
-            throw e;
+        buffer.position(next);
+        line.limit(end);
+        line.position(start);
+        return line;
+    }
+
+    private static boolean startsWith(ByteBuffer line, String prefix) {
+        if (line.remaining() < prefix.length()) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length(); i++) {
+            if (line.get(line.position() + i) != prefix.charAt(i)) {
+                return false;
+            }
         }
-        return new Key(salt, iv, encryptedDimension);
+        return true;
     }
 
+    private static int parseVersion(ByteBuffer header) throws InvalidKeyException {
+        final byte[] headerBytes = new byte[header.remaining()];
+        final int version;
+        header.get(headerBytes);
+        try {
+            version = Integer.parseInt(new String(
+                headerBytes,
+                VERSION_HEADER.length(),
+                headerBytes.length - VERSION_HEADER.length(),
+                StandardCharsets.US_ASCII
+            ));
+        }
+        catch (NumberFormatException e) {
+            throw new InvalidKeyException("malformed version header");
+        }
+        if (version != VERSION_BYTE_DIMENSION && version != VERSION_ENVELOPE) {
+            throw new InvalidKeyException("unsupported version " + version);
+        }
+        return version;
+    }
+
+    private static Recipient parseRecipient(ByteBuffer line) throws InvalidKeyException {
+        final ByteBuffer fields = line.duplicate();
+        final ByteBuffer saltField;
+        int separator = fields.position() + RECIPIENT_PREFIX.length();
+        fields.position(separator);
+        while (separator < fields.limit() && fields.get(separator) != ':') {
+            separator++;
+        }
+        if (separator == fields.limit()) {
+            throw new InvalidKeyException("malformed recipient");
+        }
+        saltField = fields.duplicate();
+        saltField.limit(separator);
+        fields.position(separator + 1);
+        return new Recipient(
+            decode(saltField, "recipient salt"),
+            decode(fields, "wrapped data key")
+        );
+    }
+
+    private static byte[] decode(
+        ByteBuffer base64Line,
+        String name
+    ) throws InvalidKeyException {
+        final Base64.Decoder decoder = Base64.getDecoder();
+        final ByteBuffer line = base64Line.duplicate();
+        final byte[] decoded = new byte[getDecodedLength(line, name)];
+        final byte[] chunk = new byte[Math.min(
+            line.remaining(),
+            getBase64Length(BASE64_CHUNK_LENGTH)
+        )];
+        final byte[] decodedChunk = new byte[BASE64_CHUNK_LENGTH];
+        int offset = 0;
+        while (line.hasRemaining()) {
+            final int length = Math.min(chunk.length, line.remaining());
+            final int decodedLength;
+            line.get(chunk, 0, length);
+            try {
+                decodedLength = (length == chunk.length)
+                                ? decoder.decode(chunk, decodedChunk)
+                                : decoder.decode(Arrays.copyOf(chunk, length), decodedChunk);
+            }
+            catch (IllegalArgumentException e) {
+                throw new InvalidKeyException("invalid Base64 in the " + name);
+            }
+            // Only the last chunk is padded
+            if (offset + decodedLength > decoded.length
+                || (line.hasRemaining() && decodedLength != BASE64_CHUNK_LENGTH)) {
+                throw new InvalidKeyException("invalid Base64 in the " + name);
+            }
+            System.arraycopy(decodedChunk, 0, decoded, offset, decodedLength);
+            offset += decodedLength;
+        }
+        if (offset != decoded.length) {
+            throw new InvalidKeyException("invalid Base64 in the " + name);
+        }
+        return decoded;
+    }
+
+    private static int getDecodedLength(
+        ByteBuffer base64Line,
+        String name
+    ) throws InvalidKeyException {
+        final int length = base64Line.remaining();
+        final int limit = base64Line.limit();
+        int padding = 0;
+        if (length % 4 != 0) {
+            throw new InvalidKeyException("invalid Base64 in the " + name);
+        }
+        while (padding < 2 && padding < length && base64Line.get(limit - 1 - padding) == '=') {
+            padding++;
+        }
+        return length / 4 * 3 - padding;
+    }
+
+    private static int newBufferLength(int length) {
+        if (length >= MAX_ARRAY_LENGTH) {
+            throw new OutOfMemoryError("The key is too long to be read");
+        }
+        return (int) Math.min((long) length * 2, MAX_ARRAY_LENGTH);
+    }
+
+    static int getBase64Length(int length) {
+        return (int) getBase64Length((long) length);
+    }
+
+    /**
+     * @return the number of Base64 characters of the given number of bytes.
+     */
+    static long getBase64Length(long length) {
+        return (length + 2) / 3 * 4;
+    }
+
+    static void writeBase64(OutputStream os, byte[] bytes) throws IOException {
+        final Base64.Encoder encoder = Base64.getEncoder();
+        final byte[] chunk = new byte[Math.min(bytes.length, BASE64_CHUNK_LENGTH)];
+        final byte[] encoded = new byte[getBase64Length(chunk.length)];
+        for (int offset = 0; offset < bytes.length; offset += chunk.length) {
+            final int length = Math.min(chunk.length, bytes.length - offset);
+            final int encodedLength;
+            if (length == chunk.length) {
+                System.arraycopy(bytes, offset, chunk, 0, length);
+                encodedLength = encoder.encode(chunk, encoded);
+            }
+            else {
+                encodedLength = encoder.encode(
+                    Arrays.copyOfRange(bytes, offset, offset + length),
+                    encoded
+                );
+            }
+            os.write(encoded, 0, encodedLength);
+        }
+    }
+
+    private static void updateField(MessageDigest md, byte[] field) {
+        // Prefixed by its length, so the fields can't be shifted
+        md.update((byte) (field.length >>> 24));
+        md.update((byte) (field.length >>> 16));
+        md.update((byte) (field.length >>> 8));
+        md.update((byte) field.length);
+        md.update(field);
+    }
+
+    final int version;
+    final KeyHeader header;
     final byte[] salt;
+    final Recipient[] recipients;
     final byte[] iv;
-    final String encryptedDimension;
+    final byte[] encryptedDimension;
+    private volatile byte[] fingerprint;
 
-    Key(byte[] salt, byte[] iv, String encryptedDimension) {
+    Key(int version, byte[] salt, byte[] iv, byte[] encryptedDimension) {
+        this(version, salt, null, iv, encryptedDimension);
+    }
+
+    Key(
+        int version,
+        byte[] salt,
+        KeyHeader header,
+        byte[] iv,
+        byte[] encryptedDimension
+    ) {
+        this.version = version;
+        this.header = header;
         this.salt = salt;
+        this.recipients = NO_RECIPIENTS;
+        this.iv = iv;
+        this.encryptedDimension = encryptedDimension;
+    }
+
+    /**
+     * Creates a key of version {@link #VERSION_ENVELOPE}.
+     */
+    Key(Recipient[] recipients, byte[] iv, byte[] encryptedDimension) {
+        this(recipients, null, iv, encryptedDimension);
+    }
+
+    /**
+     * Creates a key of version {@link #VERSION_ENVELOPE}.
+     */
+    Key(
+        Recipient[] recipients,
+        KeyHeader header,
+        byte[] iv,
+        byte[] encryptedDimension
+    ) {
+        this.version = VERSION_ENVELOPE;
+        this.header = header;
+        this.salt = null;
+        this.recipients = recipients;
         this.iv = iv;
         this.encryptedDimension = encryptedDimension;
     }
 
+    /**
+     * @return the version of the format of this key.
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the parameters the key was generated with, or {@code null} if
+     * the key was written before they were recorded.
+     */
+    public KeyHeader getHeader() {
+        return header;
+    }
+
+    /**
+     * @return the number of owner passwords the key opens with, 1 unless the
+     * key is of version {@link #VERSION_ENVELOPE}.
+     */
+    public int getOwnerCount() {
+        return (version == VERSION_ENVELOPE) ? recipients.length : 1;
+    }
+
+    /**
+     * @return the number of bytes written by this key into an output.
+     */
+    public int getSerializedLength() {
+        final int headerLength = ((version == VERSION_TEXT_DIMENSION)
+                                  ? 0
+                                  : getVersionHeader().length)
+                                 + ((header == null) ? 0 : header.toBytes().length);
+        int keysLength = 0;
+        if (version == VERSION_ENVELOPE) {
+            for (Recipient recipient : recipients) {
+                keysLength += RECIPIENT_PREFIX.length()
+                              + getBase64Length(recipient.salt.length) + 1
+                              + getBase64Length(recipient.wrappedKey.length) + 1;
+            }
+        }
+        else {
+            keysLength = getBase64Length(salt.length) + 1;
+        }
+        return headerLength
+               + keysLength
+               + getBase64Length(iv.length) + 1
+               + getBase64Length(encryptedDimension.length);
+    }
+
     public ByteArrayOutputStream toOutputStream() throws IOException {
-        final StringBuilder sb = new StringBuilder();
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        final String saltBase64Text = Base64.getEncoder().encodeToString(salt);
-        final String ivBase64Text = Base64.getEncoder().encodeToString(iv);
-        sb.append(saltBase64Text);
-        sb.append("\n");
-        sb.append(ivBase64Text);
-        sb.append("\n");
-        sb.append(encryptedDimension);
-        baos.write(sb.toString().getBytes(StandardCharsets.UTF_8));
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+            getSerializedLength()
+        );
+        writeTo(baos);
         return baos;
     }
+
+    /**
+     * Writes this key into the given stream, the stream is not closed.
+     *
+     * @param os stream to write the key into.
+     *
+     * @throws IOException if the stream fails.
+     */
+    public void writeTo(OutputStream os) throws IOException {
+        if (version != VERSION_TEXT_DIMENSION) {
+            os.write(getVersionHeader());
+        }
+        if (header != null) {
+            os.write(header.toBytes());
+        }
+        if (version == VERSION_ENVELOPE) {
+            for (Recipient recipient : recipients) {
+                os.write(RECIPIENT_PREFIX.getBytes(StandardCharsets.US_ASCII));
+                writeBase64(os, recipient.salt);
+                os.write(':');
+                writeBase64(os, recipient.wrappedKey);
+                os.write('\n');
+            }
+        }
+        else {
+            writeBase64(os, salt);
+            os.write('\n');
+        }
+        writeBase64(os, iv);
+        os.write('\n');
+        writeBase64(os, encryptedDimension);
+    }
+
+    /**
+     * Writes this key into the given channel, the channel is not closed.
+     *
+     * @param channel channel to write the key into.
+     *
+     * @throws IOException if the channel fails.
+     */
+    public void writeTo(WritableByteChannel channel) throws IOException {
+        writeTo(Channels.newOutputStream(channel));
+    }
+
+    /**
+     * Writes this key into the remaining bytes of the buffer, it must have at
+     * least {@link #getSerializedLength()} remaining bytes.
+     *
+     * @param buffer buffer to write the key into.
+     *
+     * @throws BufferOverflowException if the key doesn't fit into the buffer.
+     */
+    public void writeTo(ByteBuffer buffer) {
+        if (buffer.remaining() < getSerializedLength()) {
+            throw new BufferOverflowException();
+        }
+        try {
+            writeTo(new ByteBufferOutputStream(buffer));
+        }
+        catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * @return the SHA-256 digest of the fields of this key, it's computed
+     * once.
+     */
+    byte[] getFingerprint() {
+        byte[] digest = fingerprint;
+        if (digest == null) {
+            final MessageDigest md;
+            try {
+                md = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+            }
+            catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException(e);
+            }
+            md.update(getVersionHeader());
+            if (header != null) {
+                md.update(header.toBytes());
+            }
+            for (Recipient recipient : recipients) {
+                updateField(md, recipient.salt);
+                updateField(md, recipient.wrappedKey);
+            }
+            if (salt != null) {
+                updateField(md, salt);
+            }
+            updateField(md, iv);
+            updateField(md, encryptedDimension);
+            digest = md.digest();
+            fingerprint = digest;
+        }
+        return digest;
+    }
+
+    private byte[] getVersionHeader() {
+        return headerOf(version);
+    }
+
+    static byte[] headerOf(int version) {
+        return (VERSION_HEADER + version + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Data key of a key of version {@link #VERSION_ENVELOPE} wrapped under
+     * the key derived from an owner password and the salt.
+     */
+    static final class Recipient {
+        final byte[] salt;
+        final byte[] wrappedKey;
+
+        Recipient(byte[] salt, byte[] wrappedKey) {
+            this.salt = salt;
+            this.wrappedKey = wrappedKey;
+        }
+    }
+
+    private static final class ByteBufferOutputStream extends OutputStream {
+        private final ByteBuffer buffer;
+
+        ByteBufferOutputStream(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void write(int b) {
+            buffer.put((byte) b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            buffer.put(b, off, len);
+        }
+    }
 }
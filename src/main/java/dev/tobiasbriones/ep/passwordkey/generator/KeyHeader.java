@@ -0,0 +1,263 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+
+/**
+ * Parameters a key was generated with, stored in the line {@code
+ * H:oil=<negative>,<positive>;kdf=<algorithm>,<iterations>,<key
+ * length>;dimension=<length>;data=<length>;mac=<tag>} after the version of
+ * the keys of version {@link Key#VERSION_BYTE_DIMENSION} and {@link
+ * Key#VERSION_ENVELOPE}.<br> The header is readable without the passwords,
+ * so a key is checked against the oil it's opened with and its own lengths
+ * before any key is derived. The tag is an HMAC-SHA256 of the version, the
+ * header and the initialization vector under a key derived from the key of
+ * the dimension, it's verified once that key is derived and before the
+ * dimension is decrypted, so a changed header or a wrong owner password is
+ * detected without decrypting the dimension.<br> Keys written before the
+ * header existed have no header and are opened as before.
+ *
+ * @author Tobias Briones
+ * @see Key#getHeader()
+ */
+public final class KeyHeader {
+    static final String PREFIX = "H:";
+    private static final String OIL_FIELD = "oil=";
+    private static final String KDF_FIELD = "kdf=";
+    private static final String DIMENSION_FIELD = "dimension=";
+    private static final String DATA_FIELD = "data=";
+    private static final String MAC_FIELD = "mac=";
+    private static final int FIELD_COUNT = 5;
+    private static final int MAC_LENGTH = 32;
+
+    /**
+     * Reads the header from its line, the tag is not verified.
+     */
+    static KeyHeader parse(ByteBuffer line) throws InvalidKeyException {
+        final byte[] bytes = new byte[line.remaining()];
+        final String[] fields;
+        line.duplicate().get(bytes);
+        fields = new String(bytes, StandardCharsets.US_ASCII)
+            .substring(PREFIX.length())
+            .split(";", -1);
+        if (fields.length != FIELD_COUNT
+            || !fields[0].startsWith(OIL_FIELD)
+            || !fields[1].startsWith(KDF_FIELD)
+            || !fields[2].startsWith(DIMENSION_FIELD)
+            || !fields[3].startsWith(DATA_FIELD)
+            || !fields[4].startsWith(MAC_FIELD)) {
+            throw new InvalidKeyException("malformed header");
+        }
+        try {
+            final String[] oil = fields[0].substring(OIL_FIELD.length()).split(",", -1);
+            final String[] kdf = fields[1].substring(KDF_FIELD.length()).split(",", -1);
+            final KeyHeader header;
+            if (oil.length != 2 || kdf.length != 3) {
+                throw new InvalidKeyException("malformed header");
+            }
+            header = new KeyHeader(
+                new KeyOil(parseLength(oil[0]), parseLength(oil[1])),
+                kdf[0],
+                parseLength(kdf[1]),
+                parseLength(kdf[2]),
+                parseLength(fields[2].substring(DIMENSION_FIELD.length())),
+                parseLength(fields[3].substring(DATA_FIELD.length())),
+                Base64.getDecoder().decode(fields[4].substring(MAC_FIELD.length()))
+            );
+            if (header.dataLength > header.dimensionLength) {
+                throw new InvalidKeyException("malformed header");
+            }
+            return header;
+        }
+        catch (IllegalArgumentException e) {
+            throw new InvalidKeyException("malformed header");
+        }
+    }
+
+    /**
+     * @return the length of the line of a header with the given parameters,
+     * including its line feed.
+     */
+    static long lengthOf(
+        KeyOil oil,
+        String kdfAlgorithm,
+        int kdfIterations,
+        int kdfKeyLength,
+        long dimensionLength,
+        long dataLength
+    ) {
+        final String fields = fieldsOf(
+            oil,
+            kdfAlgorithm,
+            kdfIterations,
+            kdfKeyLength,
+            dimensionLength,
+            dataLength
+        );
+        // The tag of HMAC-SHA256 in Base64, and the separator and line feed
+        return PREFIX.length()
+               + fields.length()
+               + MAC_FIELD.length()
+               + (MAC_LENGTH + 2) / 3 * 4
+               + 2;
+    }
+
+    private static String fieldsOf(
+        KeyOil oil,
+        String kdfAlgorithm,
+        int kdfIterations,
+        int kdfKeyLength,
+        long dimensionLength,
+        long dataLength
+    ) {
+        return OIL_FIELD + oil.negativeOilLength + "," + oil.positiveOilLength
+               + ";" + KDF_FIELD + kdfAlgorithm + "," + kdfIterations + "," + kdfKeyLength
+               + ";" + DIMENSION_FIELD + dimensionLength
+               + ";" + DATA_FIELD + dataLength;
+    }
+
+    private static int parseLength(String value) throws InvalidKeyException {
+        final int length = Integer.parseInt(value);
+        if (length < 0 || !Integer.toString(length).equals(value)) {
+            throw new InvalidKeyException("malformed header");
+        }
+        return length;
+    }
+
+    final KeyOil oil;
+    final String kdfAlgorithm;
+    final int kdfIterations;
+    final int kdfKeyLength;
+    final int dimensionLength;
+    final int dataLength;
+    final byte[] mac;
+
+    KeyHeader(
+        KeyOil oil,
+        String kdfAlgorithm,
+        int kdfIterations,
+        int kdfKeyLength,
+        int dimensionLength,
+        int dataLength,
+        byte[] mac
+    ) {
+        this.oil = oil;
+        this.kdfAlgorithm = kdfAlgorithm;
+        this.kdfIterations = kdfIterations;
+        this.kdfKeyLength = kdfKeyLength;
+        this.dimensionLength = dimensionLength;
+        this.dataLength = dataLength;
+        this.mac = mac;
+    }
+
+    /**
+     * @return the oil the key was generated with.
+     */
+    public KeyOil getOil() {
+        return oil;
+    }
+
+    /**
+     * @return the algorithm the keys are derived from the owner passwords
+     * with.
+     */
+    public String getKdfAlgorithm() {
+        return kdfAlgorithm;
+    }
+
+    public int getKdfIterations() {
+        return kdfIterations;
+    }
+
+    /**
+     * @return the length in bits of the derived keys.
+     */
+    public int getKdfKeyLength() {
+        return kdfKeyLength;
+    }
+
+    /**
+     * @return the length of the decrypted dimension, made of the dimension of
+     * the user password followed by the dimension of the data.
+     */
+    public int getDimensionLength() {
+        return dimensionLength;
+    }
+
+    /**
+     * @return the length of the UTF-8 bytes of the data.
+     */
+    public int getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return a copy of this header with the given tag.
+     */
+    KeyHeader withMac(byte[] mac) {
+        return new KeyHeader(
+            oil,
+            kdfAlgorithm,
+            kdfIterations,
+            kdfKeyLength,
+            dimensionLength,
+            dataLength,
+            mac
+        );
+    }
+
+    /**
+     * @return the bytes the tag authenticates for a key of the given version
+     * and initialization vector.
+     */
+    byte[] getAuthenticatedBytes(int version, byte[] iv) {
+        final byte[] versionHeader = Key.headerOf(version);
+        final byte[] fields = getFields().getBytes(StandardCharsets.US_ASCII);
+        final byte[] bytes = Arrays.copyOf(
+            versionHeader,
+            versionHeader.length + fields.length + iv.length
+        );
+        System.arraycopy(fields, 0, bytes, versionHeader.length, fields.length);
+        System.arraycopy(iv, 0, bytes, versionHeader.length + fields.length, iv.length);
+        return bytes;
+    }
+
+    /**
+     * @return the line of this header with its line feed.
+     */
+    byte[] toBytes() {
+        return (
+            PREFIX + getFields() + ";" + MAC_FIELD + Base64.getEncoder().encodeToString(mac) + "\n"
+        ).getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private String getFields() {
+        return fieldsOf(
+            oil,
+            kdfAlgorithm,
+            kdfIterations,
+            kdfKeyLength,
+            dimensionLength,
+            dataLength
+        );
+    }
+
+    @Override
+    public String toString() {
+        return "KeyHeader{" + getFields() + '}';
+    }
+}
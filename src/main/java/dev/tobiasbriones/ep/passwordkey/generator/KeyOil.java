@@ -37,6 +37,20 @@ public final class KeyOil {
         this.positiveOilLength = positiveOilLength;
     }
 
+    /**
+     * @return the negative oil value.
+     */
+    public int getNegativeOilLength() {
+        return negativeOilLength;
+    }
+
+    /**
+     * @return the positive oil value.
+     */
+    public int getPositiveOilLength() {
+        return positiveOilLength;
+    }
+
     /**
      * @return {@code true} if has oil, {@code false} if negative oil
      * and positive oil are both zero.
@@ -44,4 +58,27 @@ public final class KeyOil {
     public boolean hasNoOil() {
         return negativeOilLength == 0 && positiveOilLength == 0;
     }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof KeyOil)) {
+            return false;
+        }
+        final KeyOil oil = (KeyOil) o;
+        return negativeOilLength == oil.negativeOilLength
+               && positiveOilLength == oil.positiveOilLength;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * negativeOilLength + positiveOilLength;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyOil{" + negativeOilLength + ", " + positiveOilLength + '}';
+    }
 }
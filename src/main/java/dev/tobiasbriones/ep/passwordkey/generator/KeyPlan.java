@@ -0,0 +1,214 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+/**
+ * Exact sizes and estimated cost of the key generated for some data and oil,
+ * computed before doing any work.<br> The dimension grows with the oil of
+ * every data character and the dimension of the hashed user password grows
+ * with the oil too, so a careless oil can need gigabytes. The plan tells it
+ * from the lengths only, so it's cheap for any oil.
+ *
+ * @author Tobias Briones
+ * @see MergeKeyGenerator#setMemoryBudget(long)
+ */
+public final class KeyPlan {
+    private static final int MAX_ARRAY_LENGTH = Integer.MAX_VALUE - 8;
+    private static final int SERIALIZED_HEADER_LENGTH =
+        Key.headerOf(Key.VERSION_BYTE_DIMENSION).length;
+    // The initialization vector of AES/CBC is one block long, the salt and it
+    // take a line each
+    private static final int SERIALIZED_SALT_AND_IV_LENGTH =
+        Key.getBase64Length(Core.SALT_SIZE) + 1 + Key.getBase64Length(Core.BLOCK_SIZE) + 1;
+
+    /**
+     * Plans the key of the given data.
+     *
+     * @param data               data to store.
+     * @param dimensionLengthOil oil to generate it.
+     *
+     * @return the plan of the key.
+     */
+    public static KeyPlan of(String data, KeyOil dimensionLengthOil) {
+        return of(utf8LengthOf(data), dimensionLengthOil);
+    }
+
+    /**
+     * Plans the key of data of the given length.
+     *
+     * @param dataLength         length of the UTF-8 bytes of the data.
+     * @param dimensionLengthOil oil to generate it.
+     *
+     * @return the plan of the key.
+     */
+    public static KeyPlan of(long dataLength, KeyOil dimensionLengthOil) {
+        final KeyOil userPasswordOil = MergeKeyGenerator.getUserPasswordOil(
+            dimensionLengthOil
+        );
+        final long userPasswordDimensionLength = DimensionLayout.of(
+            userPasswordOil,
+            true
+        ).lengthOf(MergeKeyGenerator.DIMENSION_HASH_LENGTH);
+        final long dataDimensionLength = DimensionLayout.of(
+            dimensionLengthOil,
+            false
+        ).lengthOf(dataLength);
+        return new KeyPlan(
+            dimensionLengthOil,
+            dataLength,
+            userPasswordDimensionLength,
+            dataDimensionLength
+        );
+    }
+
+    private static long utf8LengthOf(String string) {
+        long length = 0;
+        for (int i = 0; i < string.length(); i++) {
+            final char c = string.charAt(i);
+            if (c < 0x80) {
+                length++;
+            }
+            else if (c < 0x800) {
+                length += 2;
+            }
+            else if (Character.isHighSurrogate(c)
+                     && i + 1 < string.length()
+                     && Character.isLowSurrogate(string.charAt(i + 1))) {
+                length += 4;
+                i++;
+            }
+            else {
+                // Lone surrogates are encoded as '?'
+                length += (Character.isSurrogate(c)) ? 1 : 3;
+            }
+        }
+        return length;
+    }
+
+    private final KeyOil dimensionLengthOil;
+    private final long dataLength;
+    private final long userPasswordDimensionLength;
+    private final long dataDimensionLength;
+
+    private KeyPlan(
+        KeyOil dimensionLengthOil,
+        long dataLength,
+        long userPasswordDimensionLength,
+        long dataDimensionLength
+    ) {
+        this.dimensionLengthOil = dimensionLengthOil;
+        this.dataLength = dataLength;
+        this.userPasswordDimensionLength = userPasswordDimensionLength;
+        this.dataDimensionLength = dataDimensionLength;
+    }
+
+    /**
+     * @return the length of the UTF-8 bytes of the data.
+     */
+    public long getDataLength() {
+        return dataLength;
+    }
+
+    /**
+     * @return the length of the dimension of the hashed user password.
+     */
+    public long getUserPasswordDimensionLength() {
+        return userPasswordDimensionLength;
+    }
+
+    /**
+     * @return the length of the dimension of the data.
+     */
+    public long getDataDimensionLength() {
+        return dataDimensionLength;
+    }
+
+    /**
+     * @return the length of the full dimension that is encrypted.
+     */
+    public long getDimensionLength() {
+        return userPasswordDimensionLength + dataDimensionLength;
+    }
+
+    /**
+     * @return the length of the encrypted dimension, the dimension padded to
+     * the next cipher block.
+     */
+    public long getEncryptedDimensionLength() {
+        return (getDimensionLength() / Core.BLOCK_SIZE + 1) * Core.BLOCK_SIZE;
+    }
+
+    /**
+     * @return the number of bytes the key takes when written, see {@link
+     * Key#getSerializedLength()}.
+     */
+    public long getSerializedLength() {
+        return SERIALIZED_HEADER_LENGTH
+               + Core.getHeaderLength(dimensionLengthOil, getDimensionLength(), dataLength)
+               + SERIALIZED_SALT_AND_IV_LENGTH
+               + Key.getBase64Length(getEncryptedDimensionLength());
+    }
+
+    /**
+     * @return the number of cipher blocks encrypted to generate the key and
+     * decrypted to open it.
+     */
+    public long getCipherBlocks() {
+        return getEncryptedDimensionLength() / Core.BLOCK_SIZE;
+    }
+
+    /**
+     * @return the number of random oil bytes generated for the key.
+     */
+    public long getOilLength() {
+        return getDimensionLength() - MergeKeyGenerator.DIMENSION_HASH_LENGTH - dataLength;
+    }
+
+    /**
+     * @return the estimated number of bytes held in memory at the same time to
+     * generate the key: the data, the dimension and the encrypted dimension.
+     */
+    public long getGenerationMemory() {
+        return dataLength + getDimensionLength() + getEncryptedDimensionLength();
+    }
+
+    /**
+     * @return the estimated number of bytes held in memory at the same time to
+     * open the key: the encrypted dimension, the decrypted dimension and the
+     * data as bytes and as a string.
+     */
+    public long getOpeningMemory() {
+        return 2 * getEncryptedDimensionLength() + 3 * dataLength;
+    }
+
+    /**
+     * @return {@code true} if and only if the key fits into the arrays of the
+     * JVM, otherwise it can only be written with {@link
+     * MergeKeyGenerator#writeKey}.
+     */
+    public boolean isInMemorySupported() {
+        return getEncryptedDimensionLength() <= MAX_ARRAY_LENGTH
+               && getSerializedLength() <= MAX_ARRAY_LENGTH;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyPlan{"
+               + "dataLength=" + dataLength
+               + ", dimensionLength=" + getDimensionLength()
+               + ", encryptedDimensionLength=" + getEncryptedDimensionLength()
+               + ", serializedLength=" + getSerializedLength()
+               + ", generationMemory=" + getGenerationMemory()
+               + '}';
+    }
+}
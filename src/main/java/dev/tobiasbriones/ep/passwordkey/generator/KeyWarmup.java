@@ -0,0 +1,113 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import dev.tobiasbriones.ep.passwordkey.PasswordProtocol;
+
+import java.io.ByteArrayInputStream;
+
+/**
+ * Pays the first-call costs of the keys ahead of time: the lookup of the JCA
+ * providers, the seeding of the secure random generator, the initialization
+ * of BCrypt and the compilation of the hot paths by the JIT.<br> It should
+ * be run when the process starts, before it has real work, for example while
+ * a service binds its port. The rounds generate, serialize and open small
+ * keys with the same code real keys go through, including the {@link
+ * CpuWorkLimiter}.
+ *
+ * @author Tobias Briones
+ * @see MergeKeyGenerator
+ * @see MergeKeyOpener
+ */
+public final class KeyWarmup {
+    private static final String DATA = "{\"user\":\"warm-up\",\"pass\":\"0123456789\"}";
+    private static final String OWNER_PASSWORD = "warm-up-owner-password";
+    private static final String USER_PASSWORD = "warm-up-user";
+    private static final KeyOil OIL = new KeyOil(16, 8);
+    private static volatile boolean done = false;
+
+    /**
+     * Runs a single warm-up round, nothing is done if the process is already
+     * warm.
+     *
+     * @return the time spent in nanoseconds.
+     */
+    public static long run() {
+        if (done) {
+            return 0;
+        }
+        synchronized (KeyWarmup.class) {
+            // Another thread may have warmed up while this one waited
+            if (done) {
+                return 0;
+            }
+            return run(1);
+        }
+    }
+
+    /**
+     * Initializes the providers and runs the given rounds of representative
+     * calls.
+     *
+     * @param rounds number of keys generated and opened, the JIT compiles
+     *               more of the hot paths the more rounds are run.
+     *
+     * @return the time spent in nanoseconds.
+     *
+     * @throws IllegalStateException if the JVM doesn't provide the
+     *                               algorithms of the keys.
+     */
+    public static synchronized long run(int rounds) {
+        final long start = System.nanoTime();
+        if (rounds < 1) {
+            throw new IllegalArgumentException("There must be one round at least");
+        }
+        try {
+            Core.warmUp();
+            for (int i = 0; i < rounds; i++) {
+                runRound();
+            }
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new IllegalStateException("Failed to warm up the keys", e);
+        }
+        done = true;
+        return System.nanoTime() - start;
+    }
+
+    /**
+     * @return {@code true} if and only if a warm-up has finished.
+     */
+    public static boolean isDone() {
+        return done;
+    }
+
+    private static void runRound() throws Exception {
+        final Key key = Key.fromInputStream(new ByteArrayInputStream(
+            MergeKeyGenerator.generateKey(DATA, OWNER_PASSWORD, USER_PASSWORD, OIL)
+                             .toOutputStream()
+                             .toByteArray()
+        ));
+        final Key publicKey = MergeKeyGenerator.generatePublicKey(DATA, OWNER_PASSWORD, OIL);
+        if (!DATA.equals(MergeKeyOpener.openKey(key, OWNER_PASSWORD, USER_PASSWORD, OIL))
+            || !DATA.equals(MergeKeyOpener.openPublicKey(publicKey, OWNER_PASSWORD, OIL))) {
+            throw new IllegalStateException("The warm-up keys don't open");
+        }
+        PasswordProtocol.getPasswordQuality(OWNER_PASSWORD);
+    }
+
+    private KeyWarmup() {}
+}
@@ -16,6 +16,15 @@ import dev.tobiasbriones.ep.passwordkey.NotAcceptedByPasswordProtocolException;
 import dev.tobiasbriones.ep.passwordkey.PasswordProtocol;
 import org.mindrot.jbcrypt.BCrypt;
 
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+import java.util.Random;
+
 /**
  * It generates Merge Keys to store data in a safe way, which should always be
  * passwords or short messages.
@@ -27,8 +36,36 @@ import org.mindrot.jbcrypt.BCrypt;
 public final class MergeKeyGenerator {
     public static final int MAX_LENGTH_USER_PASSWORD = 50;
     static final int DIMENSION_REDUCTION_FACTOR = 2;
-    private static final int DIMENSION_HASH_LENGTH = 100;
+    static final int DIMENSION_HASH_LENGTH = 100;
     private static final int HASHED_PASSWORD_SECURE_LEVEL_OIL = 5000;
+    // Default of BCrypt.gensalt()
+    private static final int BCRYPT_LOG_ROUNDS = 10;
+    private static volatile long memoryBudget = Runtime.getRuntime().maxMemory() / 2;
+
+    /**
+     * Sets the maximum memory that generating a single key in memory can
+     * take, keys that need more are rejected with {@link
+     * UnsupportedDataKeyException} before doing any work, they can still be
+     * written with {@link #writeKey}. The default budget is half of the
+     * maximum memory of the JVM.
+     *
+     * @param bytes maximum number of bytes, see {@link
+     *              KeyPlan#getGenerationMemory()}.
+     */
+    public static void setMemoryBudget(long bytes) {
+        if (bytes <= 0) {
+            throw new IllegalArgumentException("Memory budget must be positive");
+        }
+        memoryBudget = bytes;
+    }
+
+    /**
+     * @return the maximum memory that generating a single key in memory can
+     * take.
+     */
+    public static long getMemoryBudget() {
+        return memoryBudget;
+    }
 
     /**
      * Generates a public key.
@@ -154,13 +191,354 @@ public final class MergeKeyGenerator {
         );
     }
 
+    /**
+     * Generates a public key of version {@link Key#VERSION_ENVELOPE} that
+     * opens with any of the owner passwords, see {@link
+     * #generateSharedKey(String, List, String, KeyOil)}.
+     *
+     * @param data               data to store.
+     * @param keyOwnerPasswords  owner passwords.
+     * @param dimensionLengthOil oil to generate it.
+     *
+     * @return A public key with oil and no user password.
+     *
+     * @throws NotAcceptedByPasswordProtocolException if an owner password is
+     *                                                not accepted by {@link
+     *                                                PasswordProtocol}
+     * @throws UnsupportedDataKeyException            if the data can't be
+     *                                                stored.
+     */
+    public static Key generateSharedPublicKey(
+        String data, List<String> keyOwnerPasswords,
+        KeyOil dimensionLengthOil
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException {
+        validateOwners(data, keyOwnerPasswords);
+        return createSharedKey(data, keyOwnerPasswords, "", dimensionLengthOil);
+    }
+
+    /**
+     * Generates a key of version {@link Key#VERSION_ENVELOPE} that opens with
+     * any of the owner passwords.<br> The dimension is generated and
+     * encrypted once under a random data key, and the data key is wrapped for
+     * every owner, so each owner costs a key derivation and a few bytes
+     * whatever the size of the data and oil. The owners share one salt, so
+     * opening the key derives the password once whatever the number of
+     * owners.
+     *
+     * @param data               data to store.
+     * @param keyOwnerPasswords  owner passwords.
+     * @param keyUserPassword    user password.
+     * @param dimensionLengthOil oil to generate it.
+     *
+     * @return A key with oil and user password.
+     *
+     * @throws NotAcceptedByPasswordProtocolException if a password is not
+     *                                                accepted by {@link
+     *                                                PasswordProtocol}
+     * @throws UnsupportedDataKeyException            if the data can't be
+     *                                                stored.
+     * @see #addOwner(Key, String, String)
+     */
+    public static Key generateSharedKey(
+        String data, List<String> keyOwnerPasswords,
+        String keyUserPassword,
+        KeyOil dimensionLengthOil
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException {
+        validateOwners(data, keyOwnerPasswords);
+        if (!PasswordProtocol.isAcceptedPassword(keyUserPassword)) {
+            throw new NotAcceptedByPasswordProtocolException();
+        }
+        return createSharedKey(
+            data,
+            keyOwnerPasswords,
+            keyUserPassword,
+            dimensionLengthOil
+        );
+    }
+
+    /**
+     * Shares a key of version {@link Key#VERSION_ENVELOPE} with another
+     * owner, the data key is unwrapped with a current owner password and
+     * wrapped for the new one. The dimension is kept as it is.
+     *
+     * @param key                 key to share.
+     * @param keyOwnerPassword    password of a current owner.
+     * @param newKeyOwnerPassword password of the new owner.
+     *
+     * @return the key that also opens with the new owner password.
+     *
+     * @throws InvalidKeyException                    if the key doesn't open
+     *                                                with the owner password.
+     * @throws NotAcceptedByPasswordProtocolException if the new owner password
+     *                                                is not accepted by {@link
+     *                                                PasswordProtocol}
+     * @throws UnsupportedDataKeyException            if the key is not of
+     *                                                version {@link
+     *                                                Key#VERSION_ENVELOPE}.
+     */
+    public static Key addOwner(
+        Key key, String keyOwnerPassword,
+        String newKeyOwnerPassword
+    ) throws InvalidKeyException,
+             NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException {
+        final Key.Recipient[] recipients;
+        if (key.version != Key.VERSION_ENVELOPE) {
+            throw new UnsupportedDataKeyException(
+                "only keys of version " + Key.VERSION_ENVELOPE + " have many owners"
+            );
+        }
+        if (!PasswordProtocol.isAcceptedPassword(newKeyOwnerPassword)) {
+            throw new NotAcceptedByPasswordProtocolException();
+        }
+        recipients = Arrays.copyOf(key.recipients, key.recipients.length + 1);
+        recipients[key.recipients.length] = wrapDataKey(key, keyOwnerPassword, newKeyOwnerPassword);
+        return new Key(recipients, key.header, key.iv, key.encryptedDimension);
+    }
+
+    /**
+     * Changes the password of an owner of a key of version {@link
+     * Key#VERSION_ENVELOPE}, only the data key of that owner is wrapped again
+     * under the new password, so it takes two key derivations whatever the
+     * size of the data and oil. The data key stays the same, so a copy of the
+     * key that leaked with the previous password still opens, generate a new
+     * key in that case.
+     *
+     * @param key                 key whose owner password is changed.
+     * @param keyOwnerPassword    current owner password.
+     * @param newKeyOwnerPassword new owner password.
+     *
+     * @return the key that opens with the new owner password instead of the
+     * current one.
+     *
+     * @throws InvalidKeyException                    if the key doesn't open
+     *                                                with the owner password.
+     * @throws NotAcceptedByPasswordProtocolException if the new owner password
+     *                                                is not accepted by {@link
+     *                                                PasswordProtocol}
+     * @throws UnsupportedDataKeyException            if the key is not of
+     *                                                version {@link
+     *                                                Key#VERSION_ENVELOPE}, see
+     *                                                {@link #upgradeKey}.
+     */
+    public static Key changeOwnerPassword(
+        Key key, String keyOwnerPassword,
+        String newKeyOwnerPassword
+    ) throws InvalidKeyException,
+             NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException {
+        final Key.Recipient[] recipients;
+        if (key.version != Key.VERSION_ENVELOPE) {
+            throw new UnsupportedDataKeyException(
+                "the key must be upgraded to version " + Key.VERSION_ENVELOPE + " first"
+            );
+        }
+        if (!PasswordProtocol.isAcceptedPassword(newKeyOwnerPassword)) {
+            throw new NotAcceptedByPasswordProtocolException();
+        }
+        recipients = key.recipients.clone();
+        try {
+            final Core.UnwrappedKey unwrappedKey = Core.unwrapKey(key, keyOwnerPassword);
+            try (BufferedSecretKey dataKey = unwrappedKey.dataKey) {
+                recipients[unwrappedKey.recipient] = Core.wrapKey(
+                    dataKey,
+                    newKeyOwnerPassword,
+                    Core.getRecipientSalt(key),
+                    Core.getIterationCount(key)
+                );
+            }
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+        return new Key(recipients, key.header, key.iv, key.encryptedDimension);
+    }
+
+    /**
+     * Upgrades a key of version {@link Key#VERSION_BYTE_DIMENSION} to version
+     * {@link Key#VERSION_ENVELOPE} without encrypting it again: the key the
+     * dimension is encrypted under, derived from the owner password, becomes
+     * the data key and is wrapped for the owner. The key is opened first
+     * (only the user password part of the dimension is decrypted), so wrong
+     * credentials don't produce a key that never opens. The header, if any,
+     * is authenticated again for the new version.
+     *
+     * @param key                a key to upgrade.
+     * @param keyOwnerPassword   owner password.
+     * @param keyUserPassword    user password, empty for a public key.
+     * @param dimensionLengthOil oil which the key was generated with.
+     *
+     * @return the upgraded key, or the same key if it is already of version
+     * {@link Key#VERSION_ENVELOPE}.
+     *
+     * @throws InvalidKeyException         if the key doesn't open with the
+     *                                     credentials.
+     * @throws UnsupportedDataKeyException if the key is of version {@link
+     *                                     Key#VERSION_TEXT_DIMENSION}, it has
+     *                                     to be generated again.
+     */
+    public static Key upgradeKey(
+        Key key, String keyOwnerPassword,
+        String keyUserPassword,
+        KeyOil dimensionLengthOil
+    ) throws InvalidKeyException,
+             UnsupportedDataKeyException {
+        if (key.version == Key.VERSION_ENVELOPE) {
+            return key;
+        }
+        if (key.version == Key.VERSION_TEXT_DIMENSION) {
+            throw new UnsupportedDataKeyException(
+                "keys of version " + Key.VERSION_TEXT_DIMENSION + " have to be generated again"
+            );
+        }
+        MergeKeyOpener.checkHeader(key, dimensionLengthOil);
+        // The owner key is derived once, it verifies the header and opens
+        // the dimension, and it becomes the data key of the upgraded key
+        try (BufferedSecretKey dimensionKey = Core.getDimensionKey(key, keyOwnerPassword)) {
+            MergeKeyOpener.openDimension(
+                key,
+                dimensionKey,
+                keyUserPassword,
+                dimensionLengthOil
+            );
+            final KeyHeader header = (key.header == null)
+                                     ? null
+                                     : Core.authenticateHeader(
+                                         dimensionKey,
+                                         Key.VERSION_ENVELOPE,
+                                         key.header,
+                                         key.iv
+                                     );
+            return new Key(
+                new Key.Recipient[] {
+                    Core.wrapKey(
+                        dimensionKey,
+                        keyOwnerPassword,
+                        Core.generateSalt(),
+                        Core.getIterationCount(key)
+                    )
+                },
+                header,
+                key.iv,
+                key.encryptedDimension
+            );
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+    }
+
+    /**
+     * Generates a key and writes it into the stream as {@link
+     * Key#writeTo(OutputStream)} does, the dimension is generated and
+     * encrypted chunk by chunk, so the memory taken doesn't depend on the oil
+     * and the memory budget doesn't apply. The stream is not closed.
+     *
+     * @param data               data to store.
+     * @param keyOwnerPassword   owner password.
+     * @param keyUserPassword    user password, empty for a public key.
+     * @param dimensionLengthOil oil to generate it.
+     * @param os                 stream to write the key into.
+     *
+     * @throws NotAcceptedByPasswordProtocolException if a password is not
+     *                                                accepted by {@link
+     *                                                PasswordProtocol}
+     * @throws UnsupportedDataKeyException            if the data can't be
+     *                                                stored.
+     * @throws IOException                            if the stream fails.
+     * @see KeyPlan
+     */
+    public static void writeKey(
+        String data, String keyOwnerPassword,
+        String keyUserPassword,
+        KeyOil dimensionLengthOil,
+        OutputStream os
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        validateInput(data, keyOwnerPassword);
+        if (!keyUserPassword.isEmpty()
+            && !PasswordProtocol.isAcceptedPassword(keyUserPassword)) {
+            throw new NotAcceptedByPasswordProtocolException();
+        }
+        final KeyHeader header = newHeader(
+            KeyPlan.of(data, dimensionLengthOil),
+            dimensionLengthOil
+        );
+        final Core.StreamEncryption encryption;
+        try {
+            encryption = Core.streamEncryption(
+                keyOwnerPassword,
+                Key.VERSION_BYTE_DIMENSION,
+                header
+            );
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new UnsupportedDataKeyException();
+        }
+        final byte[] hashedUserPassword = getHashedPassword(keyUserPassword)
+            .getBytes(StandardCharsets.UTF_8);
+        final byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
+        final Random random = RandomnessProvider.newRandom();
+        os.write(Key.headerOf(Key.VERSION_BYTE_DIMENSION));
+        os.write(encryption.header.toBytes());
+        Key.writeBase64(os, encryption.salt);
+        os.write('\n');
+        Key.writeBase64(os, encryption.iv);
+        os.write('\n');
+        try (OutputStream dimension = encryption.wrap(
+            Base64.getEncoder().wrap(new UnclosableOutputStream(os))
+        )) {
+            ByteDimension.write(
+                hashedUserPassword,
+                DimensionLayout.of(getUserPasswordOil(dimensionLengthOil), true),
+                Core.getTextType(hashedUserPassword),
+                dimension,
+                random
+            );
+            ByteDimension.write(
+                dataBytes,
+                DimensionLayout.of(dimensionLengthOil, false),
+                Core.getTextType(dataBytes),
+                dimension,
+                random
+            );
+        }
+        finally {
+            Arrays.fill(hashedUserPassword, (byte) 0);
+            Arrays.fill(dataBytes, (byte) 0);
+        }
+        os.flush();
+    }
+
     private static String getHashedPassword(String password) {
-        final String hashedPassword = (password.isEmpty())
-                                      ? ""
-                                      : BCrypt.hashpw(
-                                          password,
-                                          BCrypt.gensalt()
-                                      );
+        final String hashedPassword;
+        if (password.isEmpty()) {
+            hashedPassword = "";
+        }
+        else {
+            final CpuWorkLimiter.Permit permit = CpuWorkLimiter.acquire();
+            try {
+                hashedPassword = BCrypt.hashpw(
+                    password,
+                    BCrypt.gensalt(BCRYPT_LOG_ROUNDS, RandomnessProvider.newRandom())
+                );
+            }
+            finally {
+                permit.release();
+            }
+        }
         final char[] chars = new char[DIMENSION_HASH_LENGTH];
         for (int i = 0; i < chars.length; i++) {
             if (i < hashedPassword.length()) {
@@ -173,49 +551,27 @@ public final class MergeKeyGenerator {
         return new String(chars);
     }
 
-    private static String generateDimension(
-        String data,
-        KeyOil dimensionLengthOil,
-        boolean keepConstantFactor
-    ) {
-        final StringBuilder builder = new StringBuilder();
-        final char[] dataArray = data.toCharArray();
-        final int factor = (keepConstantFactor)
-                           ? 1
-                           : DIMENSION_REDUCTION_FACTOR;
-        final int typeOfData = Core.getTextType(data);
-        final String dimensionText;
-        int negativeDimensionValue = dimensionLengthOil.negativeOilLength;
-        int positiveDimensionValue = dimensionLengthOil.positiveOilLength;
-        for (char c : dataArray) {
-            builder.append(Core.randomText(negativeDimensionValue, typeOfData));
-            builder.append(c);
-            builder.append(Core.randomText(positiveDimensionValue, typeOfData));
-            negativeDimensionValue /= factor;
-            positiveDimensionValue /= factor;
-            if (negativeDimensionValue == 0) {
-                negativeDimensionValue = dimensionLengthOil.negativeOilLength;
-            }
-            if (positiveDimensionValue == 0) {
-                positiveDimensionValue = dimensionLengthOil.positiveOilLength;
-            }
-        }
-        dimensionText = builder.toString();
-        return dimensionText;
-    }
-
-    private static String generateFullDimension(
+    private static byte[] generateFullDimension(
         String data,
         String userPassword,
         KeyOil dimensionLengthOil
     ) {
-        final String hashedUserPassword = getHashedPassword(userPassword);
+        final byte[] hashedUserPassword = getHashedPassword(userPassword)
+            .getBytes(StandardCharsets.UTF_8);
+        final byte[] dataBytes = data.getBytes(StandardCharsets.UTF_8);
         final KeyOil userPasswordOil = getUserPasswordOil(dimensionLengthOil);
-        return generateDimension(
-            hashedUserPassword,
-            userPasswordOil,
-            true
-        ) + generateDimension(data, dimensionLengthOil, false);
+        try {
+            return ByteDimension.generate(
+                hashedUserPassword,
+                userPasswordOil,
+                dataBytes,
+                dimensionLengthOil
+            );
+        }
+        finally {
+            Arrays.fill(hashedUserPassword, (byte) 0);
+            Arrays.fill(dataBytes, (byte) 0);
+        }
     }
 
     private static void validateInput(
@@ -231,31 +587,160 @@ public final class MergeKeyGenerator {
         }
     }
 
+    private static void validateOwners(
+        String data,
+        List<String> keyOwnerPasswords
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException {
+        if (keyOwnerPasswords.isEmpty()) {
+            throw new IllegalArgumentException("A key needs one owner at least");
+        }
+        for (String keyOwnerPassword : keyOwnerPasswords) {
+            validateInput(data, keyOwnerPassword);
+        }
+    }
+
+    private static void checkMemoryBudget(KeyPlan plan) throws UnsupportedDataKeyException {
+        if (!plan.isInMemorySupported() || plan.getGenerationMemory() > memoryBudget) {
+            throw new UnsupportedDataKeyException(
+                "the key needs about " + plan.getGenerationMemory()
+                + " bytes of memory which is over the budget of " + memoryBudget
+                + " bytes, write it into a stream instead"
+            );
+        }
+    }
+
+    private static KeyHeader newHeader(
+        KeyPlan plan,
+        KeyOil dimensionLengthOil
+    ) throws UnsupportedDataKeyException {
+        // Keys are read into arrays, so longer keys couldn't be opened
+        if (plan.getDimensionLength() > Integer.MAX_VALUE - Core.BLOCK_SIZE) {
+            throw new UnsupportedDataKeyException(
+                "the dimension of " + plan.getDimensionLength() + " bytes is too long to be opened"
+            );
+        }
+        return Core.newHeader(
+            dimensionLengthOil,
+            (int) plan.getDimensionLength(),
+            (int) plan.getDataLength()
+        );
+    }
+
     private static Key createKey(
         String data,
         String keyOwnerPassword,
         String keyUserPassword,
         KeyOil dimensionLengthOil
     ) throws UnsupportedDataKeyException {
-        final String dimensionText = generateFullDimension(
-            data,
-            keyUserPassword,
-            dimensionLengthOil
-        );
+        final KeyPlan plan = KeyPlan.of(data, dimensionLengthOil);
+        final KeyHeader header;
         final Core.Encryption encryptedDimension;
+        checkMemoryBudget(plan);
+        header = newHeader(plan, dimensionLengthOil);
         try {
-            encryptedDimension = Core.encrypt(dimensionText, keyOwnerPassword);
+            final byte[] dimension = generateFullDimension(
+                data,
+                keyUserPassword,
+                dimensionLengthOil
+            );
+            try {
+                encryptedDimension = Core.encrypt(
+                    dimension,
+                    keyOwnerPassword,
+                    Key.VERSION_BYTE_DIMENSION,
+                    header
+                );
+            }
+            finally {
+                Arrays.fill(dimension, (byte) 0);
+            }
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
         }
         catch (Exception e) {
             throw new UnsupportedDataKeyException();
         }
         return new Key(
+            Key.VERSION_BYTE_DIMENSION,
             encryptedDimension.salt,
+            encryptedDimension.header,
+            encryptedDimension.iv,
+            encryptedDimension.encrypted
+        );
+    }
+
+    private static Key createSharedKey(
+        String data,
+        List<String> keyOwnerPasswords,
+        String keyUserPassword,
+        KeyOil dimensionLengthOil
+    ) throws UnsupportedDataKeyException {
+        final Key.Recipient[] recipients = new Key.Recipient[keyOwnerPasswords.size()];
+        final KeyPlan plan = KeyPlan.of(data, dimensionLengthOil);
+        final KeyHeader header;
+        final Core.Encryption encryptedDimension;
+        checkMemoryBudget(plan);
+        header = newHeader(plan, dimensionLengthOil);
+        try (BufferedSecretKey dataKey = Core.generateDataKey()) {
+            final byte[] dimension = generateFullDimension(
+                data,
+                keyUserPassword,
+                dimensionLengthOil
+            );
+            try {
+                encryptedDimension = Core.encrypt(
+                    dimension,
+                    dataKey,
+                    Key.VERSION_ENVELOPE,
+                    header
+                );
+            }
+            finally {
+                Arrays.fill(dimension, (byte) 0);
+            }
+            // One salt for all the owners, so opening derives the password once
+            final byte[] salt = Core.generateSalt();
+            for (int i = 0; i < recipients.length; i++) {
+                recipients[i] = Core.wrapKey(dataKey, keyOwnerPasswords.get(i), salt);
+            }
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new UnsupportedDataKeyException();
+        }
+        return new Key(
+            recipients,
+            encryptedDimension.header,
             encryptedDimension.iv,
-            encryptedDimension.encryptedText
+            encryptedDimension.encrypted
         );
     }
 
+    private static Key.Recipient wrapDataKey(
+        Key key,
+        String keyOwnerPassword,
+        String newKeyOwnerPassword
+    ) throws InvalidKeyException {
+        try (BufferedSecretKey dimensionKey = Core.getDimensionKey(key, keyOwnerPassword)) {
+            return Core.wrapKey(
+                dimensionKey,
+                newKeyOwnerPassword,
+                Core.getRecipientSalt(key),
+                Core.getIterationCount(key)
+            );
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+    }
+
     static KeyOil getUserPasswordOil(KeyOil dimensionLengthOil) {
         if (dimensionLengthOil.negativeOilLength < HASHED_PASSWORD_SECURE_LEVEL_OIL
             && dimensionLengthOil.positiveOilLength < HASHED_PASSWORD_SECURE_LEVEL_OIL) {
@@ -277,4 +762,20 @@ public final class MergeKeyGenerator {
     }
 
     private MergeKeyGenerator() {}
+
+    private static final class UnclosableOutputStream extends FilterOutputStream {
+        UnclosableOutputStream(OutputStream os) {
+            super(os);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+        }
+    }
 }
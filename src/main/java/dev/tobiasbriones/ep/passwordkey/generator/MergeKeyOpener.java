@@ -12,8 +12,16 @@
 
 package dev.tobiasbriones.ep.passwordkey.generator;
 
+import dev.tobiasbriones.ep.passwordkey.simd.TextScan;
 import org.mindrot.jbcrypt.BCrypt;
 
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
 /**
  * It opens Merge Keys to get their data that will usually be passwords.
  *
@@ -33,7 +41,8 @@ public final class MergeKeyOpener {
      * @param ownerKeyPassword owner password.
      *
      * @return a string with the data if only if the key is public and opens
-     * with the provided ownerKeyPassword and no oil, otherwise random data.
+     * with the provided ownerKeyPassword and the oil of its header, or no oil
+     * if it has no header, otherwise random data.
      *
      * @throws InvalidKeyException if a wrong key is detected.
      */
@@ -41,7 +50,7 @@ public final class MergeKeyOpener {
         Key key,
         String ownerKeyPassword
     ) throws InvalidKeyException {
-        return openPublicKey(key, ownerKeyPassword, new KeyOil(0, 0));
+        return openPublicKey(key, ownerKeyPassword, getOil(key));
     }
 
     /**
@@ -79,8 +88,8 @@ public final class MergeKeyOpener {
      * @param userKeyPassword  user password.
      *
      * @return a string with the data if and only if the key opens with the
-     * provided ownerKeyPassword, userKeyPassword and no oil, otherwise random
-     * data.
+     * provided ownerKeyPassword, userKeyPassword and the oil of its header, or
+     * no oil if it has no header, otherwise random data.
      *
      * @throws InvalidKeyException if a wrong key is detected.
      */
@@ -92,7 +101,7 @@ public final class MergeKeyOpener {
             key,
             ownerKeyPassword,
             userKeyPassword,
-            new KeyOil(0, 0)
+            getOil(key)
         );
     }
 
@@ -112,18 +121,348 @@ public final class MergeKeyOpener {
      * provided ownerKeyPassword, userKeyPassword and oil, otherwise random
      * data.
      *
-     * @throws InvalidKeyException if a wrong key is detected.
+     * @throws InvalidKeyException if a wrong key is detected, a key with a
+     *                             header is rejected before deriving any key
+     *                             if it was generated with another oil.
+     * @see OpenedKeyCache
      */
     public static String openKey(
         Key key, String ownerKeyPassword,
         String userKeyPassword, KeyOil dimensionLengthOil
+    ) throws InvalidKeyException {
+        checkHeader(key, dimensionLengthOil);
+        return OpenedKeyCache.get().open(
+            key,
+            ownerKeyPassword,
+            userKeyPassword,
+            dimensionLengthOil,
+            () -> openUncachedKey(key, ownerKeyPassword, userKeyPassword, dimensionLengthOil)
+        );
+    }
+
+    private static String openUncachedKey(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil
+    ) throws InvalidKeyException {
+        if (key.version == Key.VERSION_TEXT_DIMENSION) {
+            return openTextKey(
+                key,
+                ownerKeyPassword,
+                userKeyPassword,
+                dimensionLengthOil
+            );
+        }
+        final byte[] data;
+        try (Core.Decryption fullDimension = decryptDimension(key, ownerKeyPassword)) {
+            final KeyOil userPasswordOil = MergeKeyGenerator.getUserPasswordOil(
+                dimensionLengthOil);
+            final int userHashedPasswordLengthInFullDimension =
+                MergeKeyGenerator.getUserHashedPasswordLengthInDimension(
+                    userPasswordOil);
+            if (fullDimension.length < userHashedPasswordLengthInFullDimension
+                || (key.header != null && fullDimension.length != key.header.dimensionLength)) {
+                throw new InvalidKeyException();
+            }
+            final byte[] userHashedPassword = ByteDimension.retrieveData(
+                fullDimension.decrypted,
+                0,
+                userHashedPasswordLengthInFullDimension,
+                userPasswordOil,
+                true
+            );
+            checkUserKeyPassword(
+                new String(userHashedPassword, StandardCharsets.UTF_8).trim(),
+                userKeyPassword
+            );
+            Arrays.fill(userHashedPassword, (byte) 0);
+            // The header tells the length of the data, so it's not searched
+            // from the length of the dimension
+            data = (key.header == null)
+                   ? ByteDimension.retrieveData(
+                       fullDimension.decrypted,
+                       userHashedPasswordLengthInFullDimension,
+                       fullDimension.length - userHashedPasswordLengthInFullDimension,
+                       dimensionLengthOil,
+                       false
+                   )
+                   : ByteDimension.retrieveData(
+                       fullDimension.decrypted,
+                       userHashedPasswordLengthInFullDimension,
+                       key.header.dataLength,
+                       dimensionLengthOil
+                   );
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+        return new String(data, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Opens a public key to retrieve only a range of its data, see {@link
+     * #openRange(Key, String, String, KeyOil, int, int)}.
+     *
+     * @param key                a public key to be opened.
+     * @param ownerKeyPassword   owner password.
+     * @param dimensionLengthOil oil which the key was generate it.
+     * @param from               index of the first character of the range.
+     * @param to                 index after the last character of the range.
+     *
+     * @return a string with the characters of the data from {@code from} to
+     * {@code to - 1} if and only if the key is public and opens with the
+     * provided ownerKeyPassword and oil, otherwise random data.
+     *
+     * @throws InvalidKeyException if a wrong key is detected or the data is
+     *                             shorter than {@code to}.
+     */
+    public static String openPublicRange(
+        Key key, String ownerKeyPassword,
+        KeyOil dimensionLengthOil, int from, int to
+    ) throws InvalidKeyException {
+        return openRange(key, ownerKeyPassword, "", dimensionLengthOil, from, to);
+    }
+
+    /**
+     * Opens key to retrieve only a range of its data, like {@link
+     * String#substring(int, int)} on the data returned by {@link
+     * #openKey(Key, String, String, KeyOil)}.<br> The key is decrypted lazily
+     * and the dimension is only read until the last requested character, so
+     * the remaining of a large key is never decrypted.
+     *
+     * @param key                a key to be opened.
+     * @param ownerKeyPassword   owner password.
+     * @param userKeyPassword    user password.
+     * @param dimensionLengthOil oil which the key was generate it.
+     * @param from               index of the first character of the range.
+     * @param to                 index after the last character of the range.
+     *
+     * @return a string with the characters of the data from {@code from} to
+     * {@code to - 1} if and only if the key opens with the provided
+     * ownerKeyPassword, userKeyPassword and oil, otherwise random data.
+     *
+     * @throws InvalidKeyException if a wrong key is detected or the data is
+     *                             shorter than {@code to}.
+     */
+    public static String openRange(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil,
+        int from, int to
+    ) throws InvalidKeyException {
+        checkRange(from, to);
+        checkHeader(key, dimensionLengthOil);
+        checkDataLength(key, to);
+        if (key.version == Key.VERSION_TEXT_DIMENSION) {
+            return openTextKeyRange(
+                key,
+                ownerKeyPassword,
+                userKeyPassword,
+                dimensionLengthOil,
+                from,
+                to
+            );
+        }
+        final char[] range = new char[to - from];
+        try (
+            final BufferedSecretKey dimensionKey = Core.getDimensionKey(key, ownerKeyPassword);
+            final InputStream dimension = Core.decryptingStream(
+                key.encryptedDimension,
+                dimensionKey,
+                key.iv
+            )
+        ) {
+            final KeyOil userPasswordOil = MergeKeyGenerator.getUserPasswordOil(
+                dimensionLengthOil);
+            final byte[] userHashedPasswordDimension =
+                new byte[MergeKeyGenerator.getUserHashedPasswordLengthInDimension(
+                    userPasswordOil)];
+            final Reader data = new InputStreamReader(
+                new DimensionDataInputStream(
+                    dimension,
+                    DimensionLayout.of(dimensionLengthOil, false)
+                ),
+                StandardCharsets.UTF_8
+            );
+            readFully(dimension, userHashedPasswordDimension);
+            checkUserKeyPassword(
+                new String(
+                    ByteDimension.retrieveData(
+                        userHashedPasswordDimension,
+                        0,
+                        userHashedPasswordDimension.length,
+                        userPasswordOil,
+                        true
+                    ),
+                    StandardCharsets.UTF_8
+                ).trim(),
+                userKeyPassword
+            );
+            skipFully(data, from);
+            readFully(data, range);
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+        return new String(range);
+    }
+
+    /**
+     * Opens a public key to retrieve only a range of the UTF-8 bytes of its
+     * data, see {@link #openByteRange(Key, String, String, KeyOil, int,
+     * int)}.
+     *
+     * @param key                a public key to be opened.
+     * @param ownerKeyPassword   owner password.
+     * @param dimensionLengthOil oil which the key was generate it.
+     * @param from               index of the first byte of the range.
+     * @param to                 index after the last byte of the range.
+     *
+     * @return the UTF-8 bytes of the data from {@code from} to {@code to - 1}
+     * if and only if the key is public and opens with the provided
+     * ownerKeyPassword and oil, otherwise random data.
+     *
+     * @throws InvalidKeyException if a wrong key is detected, the data is
+     *                             shorter than {@code to} or the key is of
+     *                             version {@link Key#VERSION_TEXT_DIMENSION}.
+     */
+    public static byte[] openPublicByteRange(
+        Key key, String ownerKeyPassword,
+        KeyOil dimensionLengthOil, int from, int to
+    ) throws InvalidKeyException {
+        return openByteRange(
+            key,
+            ownerKeyPassword,
+            "",
+            dimensionLengthOil,
+            from,
+            to
+        );
+    }
+
+    /**
+     * Opens key to retrieve only a range of the UTF-8 bytes of its data.<br>
+     * Every byte of the dimension takes one byte of the cipher text, so the
+     * blocks holding the range are found from its position and only those
+     * blocks and the ones holding the user password are decrypted, it costs
+     * the same for a small key than for a large one.
+     *
+     * @param key                a key to be opened.
+     * @param ownerKeyPassword   owner password.
+     * @param userKeyPassword    user password.
+     * @param dimensionLengthOil oil which the key was generate it.
+     * @param from               index of the first byte of the range.
+     * @param to                 index after the last byte of the range.
+     *
+     * @return the UTF-8 bytes of the data from {@code from} to {@code to - 1}
+     * if and only if the key opens with the provided ownerKeyPassword,
+     * userKeyPassword and oil, otherwise random data.
+     *
+     * @throws InvalidKeyException if a wrong key is detected, the data is
+     *                             shorter than {@code to} or the key is of
+     *                             version {@link Key#VERSION_TEXT_DIMENSION}.
+     */
+    public static byte[] openByteRange(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil,
+        int from, int to
+    ) throws InvalidKeyException {
+        checkRange(from, to);
+        if (key.version == Key.VERSION_TEXT_DIMENSION) {
+            throw new InvalidKeyException();
+        }
+        checkHeader(key, dimensionLengthOil);
+        checkDataLength(key, to);
+        final byte[] range = new byte[to - from];
+        try (BufferedSecretKey dimensionKey = Core.getDimensionKey(key, ownerKeyPassword)) {
+            final Core.BlockDecryption dimension = openDimension(
+                key,
+                dimensionKey,
+                userKeyPassword,
+                dimensionLengthOil
+            );
+            final int userHashedPasswordLengthInFullDimension =
+                MergeKeyGenerator.getUserHashedPasswordLengthInDimension(
+                    MergeKeyGenerator.getUserPasswordOil(dimensionLengthOil));
+            final DimensionLayout layout = DimensionLayout.of(
+                dimensionLengthOil,
+                false
+            );
+            if (from == to) {
+                return range;
+            }
+            final long start = layout.offsetOf(from);
+            final long end = layout.offsetOf(to - 1) + 1;
+            if (userHashedPasswordLengthInFullDimension + end > dimension.length()) {
+                throw new InvalidKeyException();
+            }
+            final byte[] region = dimension.read(
+                userHashedPasswordLengthInFullDimension + start,
+                userHashedPasswordLengthInFullDimension + end
+            );
+            for (int i = from; i < to; i++) {
+                range[i - from] = region[(int) (layout.offsetOf(i) - start)];
+            }
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+        return range;
+    }
+
+    /**
+     * Checks the user password against the hash at the start of the
+     * dimension of a key of version {@link Key#VERSION_BYTE_DIMENSION} or
+     * later, decrypting only the blocks of the hash.
+     *
+     * @return the dimension to read the data from.
+     */
+    static Core.BlockDecryption openDimension(
+        Key key,
+        BufferedSecretKey dimensionKey,
+        String userKeyPassword,
+        KeyOil dimensionLengthOil
+    ) throws Exception {
+        final Core.BlockDecryption dimension = Core.blockDecryption(
+            key.encryptedDimension,
+            dimensionKey,
+            key.iv
+        );
+        final KeyOil userPasswordOil = MergeKeyGenerator.getUserPasswordOil(
+            dimensionLengthOil);
+        final int userHashedPasswordLengthInFullDimension =
+            MergeKeyGenerator.getUserHashedPasswordLengthInDimension(
+                userPasswordOil);
+        final byte[] userHashedPassword = ByteDimension.retrieveData(
+            dimension.read(0, userHashedPasswordLengthInFullDimension),
+            0,
+            userHashedPasswordLengthInFullDimension,
+            userPasswordOil,
+            true
+        );
+        checkUserKeyPassword(
+            new String(userHashedPassword, StandardCharsets.UTF_8).trim(),
+            userKeyPassword
+        );
+        return dimension;
+    }
+
+    private static String openTextKey(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil
     ) throws InvalidKeyException {
         final String dataDimension;
-        try {
+        try (BufferedSecretKey dimensionKey = Core.getDimensionKey(key, ownerKeyPassword)) {
             final String fullDimension = Core.decrypt(
                 key.encryptedDimension,
-                ownerKeyPassword,
-                key.salt,
+                dimensionKey,
                 key.iv
             );
             final KeyOil userPasswordOil = MergeKeyGenerator.getUserPasswordOil(
@@ -145,6 +484,9 @@ public final class MergeKeyOpener {
             );
             checkUserKeyPassword(userHashedPassword, userKeyPassword);
         }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
         catch (Exception e) {
             throw new InvalidKeyException();
         }
@@ -155,6 +497,158 @@ public final class MergeKeyOpener {
         );
     }
 
+    private static String openTextKeyRange(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil,
+        int from, int to
+    ) throws InvalidKeyException {
+        final char[] range = new char[to - from];
+        try (
+            final BufferedSecretKey dimensionKey = Core.getDimensionKey(key, ownerKeyPassword);
+            final Reader dimension = Core.decryptingReader(
+                key.encryptedDimension,
+                dimensionKey,
+                key.iv
+            )
+        ) {
+            final KeyOil userPasswordOil = MergeKeyGenerator.getUserPasswordOil(
+                dimensionLengthOil);
+            final char[] userHashedPasswordDimension =
+                new char[MergeKeyGenerator.getUserHashedPasswordLengthInDimension(
+                    userPasswordOil)];
+            final DimensionLayout layout = DimensionLayout.of(
+                dimensionLengthOil,
+                false
+            );
+            long position = 0;
+            readFully(dimension, userHashedPasswordDimension);
+            checkUserKeyPassword(
+                retrieveDataFromDimension(
+                    new String(userHashedPasswordDimension),
+                    userPasswordOil,
+                    true
+                ).trim(),
+                userKeyPassword
+            );
+            for (int i = from; i < to; i++) {
+                final long offset = layout.offsetOf(i);
+                final int c;
+                skipFully(dimension, offset - position);
+                c = dimension.read();
+                if (c == -1) {
+                    throw new InvalidKeyException();
+                }
+                range[i - from] = (char) c;
+                position = offset + 1;
+            }
+        }
+        catch (CpuWorkRejectedException e) {
+            throw e;
+        }
+        catch (Exception e) {
+            throw new InvalidKeyException();
+        }
+        return new String(range);
+    }
+
+    private static KeyOil getOil(Key key) {
+        return (key.header == null) ? new KeyOil(0, 0) : key.header.oil;
+    }
+
+    /**
+     * Checks the header of the key, if any, against the oil it's opened with
+     * and the lengths of the key, so a key that can't open is rejected before
+     * deriving any key.
+     */
+    static void checkHeader(
+        Key key,
+        KeyOil dimensionLengthOil
+    ) throws InvalidKeyException {
+        final KeyHeader header = key.header;
+        if (header == null) {
+            return;
+        }
+        if (!header.oil.equals(dimensionLengthOil)) {
+            throw new InvalidKeyException(
+                "the key was generated with the oil " + header.oil
+            );
+        }
+        Core.checkKdf(header);
+        final long dimensionLength =
+            MergeKeyGenerator.getUserHashedPasswordLengthInDimension(
+                MergeKeyGenerator.getUserPasswordOil(dimensionLengthOil)
+            )
+            + DimensionLayout.of(dimensionLengthOil, false).lengthOf(header.dataLength);
+        final long encryptedLength =
+            ((long) header.dimensionLength / Core.BLOCK_SIZE + 1) * Core.BLOCK_SIZE;
+        if (dimensionLength != header.dimensionLength
+            || encryptedLength != key.encryptedDimension.length) {
+            throw new InvalidKeyException("the lengths of the key don't match its header");
+        }
+    }
+
+    private static void checkDataLength(Key key, int to) throws InvalidKeyException {
+        // Characters take one byte at least
+        if (key.header != null && to > key.header.dataLength) {
+            throw new InvalidKeyException(
+                "the data is " + key.header.dataLength + " bytes long"
+            );
+        }
+    }
+
+    private static void checkRange(int from, int to) {
+        if (from < 0 || from > to) {
+            throw new IndexOutOfBoundsException(
+                "Invalid range from " + from + " to " + to
+            );
+        }
+    }
+
+    private static void readFully(Reader reader, char[] chars) throws IOException,
+                                                                      InvalidKeyException {
+        int length = 0;
+        while (length < chars.length) {
+            final int read = reader.read(chars, length, chars.length - length);
+            if (read == -1) {
+                throw new InvalidKeyException();
+            }
+            length += read;
+        }
+    }
+
+    private static void readFully(InputStream is, byte[] bytes) throws IOException,
+                                                                       InvalidKeyException {
+        int length = 0;
+        while (length < bytes.length) {
+            final int read = is.read(bytes, length, bytes.length - length);
+            if (read == -1) {
+                throw new InvalidKeyException();
+            }
+            length += read;
+        }
+    }
+
+    private static void skipFully(Reader reader, long n) throws IOException,
+                                                                InvalidKeyException {
+        long remaining = n;
+        while (remaining > 0) {
+            final long skipped = reader.skip(remaining);
+            if (skipped == 0) {
+                throw new InvalidKeyException();
+            }
+            remaining -= skipped;
+        }
+    }
+
+    private static Core.Decryption decryptDimension(
+        Key key,
+        String ownerKeyPassword
+    ) throws Exception {
+        try (BufferedSecretKey dimensionKey = Core.getDimensionKey(key, ownerKeyPassword)) {
+            return Core.decryptBytes(key.encryptedDimension, dimensionKey, key.iv);
+        }
+    }
+
     private static void checkUserKeyPassword(
         String userHashedKeyPassword,
         String userKeyPassword
@@ -163,7 +657,15 @@ public final class MergeKeyOpener {
         if (isPublicKey) {
             return;
         }
-        if (!BCrypt.checkpw(userKeyPassword, userHashedKeyPassword)) {
+        final boolean matches;
+        final CpuWorkLimiter.Permit permit = CpuWorkLimiter.acquire();
+        try {
+            matches = BCrypt.checkpw(userKeyPassword, userHashedKeyPassword);
+        }
+        finally {
+            permit.release();
+        }
+        if (!matches) {
             throw new InvalidKeyException();
         }
     }
@@ -173,6 +675,26 @@ public final class MergeKeyOpener {
         KeyOil dimensionLengthOil,
         boolean keepConstantFactor
     ) {
+        final int negativeOil = dimensionLengthOil.negativeOilLength;
+        final int positiveOil = dimensionLengthOil.positiveOilLength;
+        // Oil lengths of 0 or 1 can't be reduced, so the data is at a
+        // constant stride and can be copied in one scan
+        if (keepConstantFactor || (negativeOil <= 1 && positiveOil <= 1)) {
+            final int stride = negativeOil + positiveOil + 1;
+            final int count = (dimension.length() > negativeOil)
+                              ? (dimension.length() - negativeOil - 1) / stride + 1
+                              : 0;
+            final char[] data = new char[count];
+            TextScan.stridedCopy(dimension.toCharArray(), negativeOil, stride, data, count);
+            return new String(data);
+        }
+        if (dimension.length() >= ParallelDimension.PARALLEL_THRESHOLD) {
+            return ParallelDimension.retrieveData(
+                dimension,
+                dimensionLengthOil,
+                keepConstantFactor
+            );
+        }
         final StringBuilder builder = new StringBuilder();
         final char[] dimentionArray = dimension.toCharArray();
         final int factor = (keepConstantFactor)
@@ -211,5 +733,63 @@ public final class MergeKeyOpener {
         return data;
     }
 
+    /**
+     * Reads only the data of a byte dimension, the oil is read and dropped.
+     */
+    private static final class DimensionDataInputStream extends InputStream {
+        private final InputStream dimension;
+        private final DimensionLayout layout;
+        private final byte[] oil;
+        private long index;
+        private long position;
+
+        DimensionDataInputStream(InputStream dimension, DimensionLayout layout) {
+            this.dimension = dimension;
+            this.layout = layout;
+            this.oil = new byte[Core.BLOCK_SIZE * 64];
+            this.index = 0;
+            this.position = 0;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final long offset = layout.offsetOf(index);
+            final int b;
+            while (position < offset) {
+                final int read = dimension.read(
+                    oil,
+                    0,
+                    (int) Math.min(oil.length, offset - position)
+                );
+                if (read == -1) {
+                    return -1;
+                }
+                position += read;
+            }
+            b = dimension.read();
+            if (b == -1) {
+                return -1;
+            }
+            index++;
+            position++;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            // One byte at a time, so readers don't read (and decrypt) ahead
+            final int read;
+            if (len == 0) {
+                return 0;
+            }
+            read = read();
+            if (read == -1) {
+                return -1;
+            }
+            b[off] = (byte) read;
+            return 1;
+        }
+    }
+
     private MergeKeyOpener() {}
 }
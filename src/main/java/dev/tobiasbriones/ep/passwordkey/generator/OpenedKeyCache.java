@@ -0,0 +1,422 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import javax.crypto.Cipher;
+import javax.crypto.KeyGenerator;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Caches the data of the keys opened by {@link MergeKeyOpener#openKey(Key,
+ * String, String, KeyOil)}, so opening a hot key again with the same
+ * credentials takes a lookup and an AES-GCM decryption instead of the key
+ * derivation, the decryption of the dimension and the user password
+ * check.<br> The cache is disabled by default, once configured it keeps up
+ * to a number of entries for a time to live and evicts the least recently or
+ * the least frequently used entry when it's full. An entry is identified by
+ * an HMAC of the fingerprint of the key, the passwords and the oil, and its
+ * data is encrypted, both under keys generated for the cache that never
+ * leave the process, so the entries don't hold the data or the passwords in
+ * plaintext. Failed opens are not cached.
+ *
+ * @author Tobias Briones
+ * @see MergeKeyOpener
+ */
+public final class OpenedKeyCache {
+    /**
+     * Entry that is dropped when the cache is full.
+     */
+    public enum Eviction {
+        LEAST_RECENTLY_USED,
+
+        /**
+         * The entry opened the fewest times, the least recently used one if
+         * there are many, it takes a scan of the entries.
+         */
+        LEAST_FREQUENTLY_USED
+    }
+
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int IV_SIZE = 12;
+    private static final int TAG_LENGTH = 128;
+    // Looking the algorithms up costs more than a lookup, so they are reused
+    private static final ThreadLocal<Mac> MACS = ThreadLocal.withInitial(OpenedKeyCache::newMac);
+    private static final ThreadLocal<Cipher> CIPHERS = ThreadLocal.withInitial(
+        OpenedKeyCache::newCipher
+    );
+    private static volatile OpenedKeyCache instance = new OpenedKeyCache(
+        0,
+        0,
+        Eviction.LEAST_RECENTLY_USED
+    );
+
+    /**
+     * Enables the cache with a new, empty one, the entries of the previous
+     * cache are dropped.
+     *
+     * @param maxEntries number of entries kept at most.
+     * @param ttlMillis  time an entry is kept since it was stored.
+     * @param eviction   entry dropped when the cache is full.
+     */
+    public static void configure(int maxEntries, long ttlMillis, Eviction eviction) {
+        if (maxEntries < 1 || ttlMillis < 1) {
+            throw new IllegalArgumentException("Invalid cache limits");
+        }
+        replace(new OpenedKeyCache(maxEntries, ttlMillis, eviction));
+    }
+
+    /**
+     * Disables the cache, its entries are dropped.
+     */
+    public static void disable() {
+        replace(new OpenedKeyCache(0, 0, Eviction.LEAST_RECENTLY_USED));
+    }
+
+    /**
+     * @return the cache in use.
+     */
+    public static OpenedKeyCache get() {
+        return instance;
+    }
+
+    private static synchronized void replace(OpenedKeyCache cache) {
+        final OpenedKeyCache previous = instance;
+        instance = cache;
+        previous.close();
+    }
+
+    private static void updateField(Mac mac, byte[] field) {
+        mac.update((byte) (field.length >>> 24));
+        mac.update((byte) (field.length >>> 16));
+        mac.update((byte) (field.length >>> 8));
+        mac.update((byte) field.length);
+        mac.update(field);
+    }
+
+    private static Mac newMac() {
+        try {
+            return Mac.getInstance(MAC_ALGORITHM);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static Cipher newCipher() {
+        try {
+            return Cipher.getInstance(TRANSFORMATION);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static BufferedSecretKey generateKey(boolean isMacKey) {
+        try {
+            if (!isMacKey) {
+                return Core.generateDataKey();
+            }
+            final KeyGenerator generator = KeyGenerator.getInstance(MAC_ALGORITHM);
+            generator.init(RandomnessProvider.newRandom());
+            return Core.toBufferedKey(generator.generateKey(), MAC_ALGORITHM);
+        }
+        catch (Exception e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private final int maxEntries;
+    private final long ttlNanos;
+    private final Eviction eviction;
+    private final BufferedSecretKey identifierKey;
+    private final BufferedSecretKey entryKey;
+    private final SecureRandom random;
+    private final LinkedHashMap<ByteBuffer, Entry> entries;
+    private final AtomicLong hits;
+    private final AtomicLong misses;
+    private final AtomicLong evictions;
+    private final AtomicLong expirations;
+
+    private OpenedKeyCache(int maxEntries, long ttlMillis, Eviction eviction) {
+        this.maxEntries = maxEntries;
+        this.ttlNanos = TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+        this.eviction = eviction;
+        this.identifierKey = (maxEntries == 0) ? null : generateKey(true);
+        this.entryKey = (maxEntries == 0) ? null : generateKey(false);
+        this.random = RandomnessProvider.newRandom();
+        this.entries = new LinkedHashMap<>(16, 0.75f, true);
+        this.hits = new AtomicLong();
+        this.misses = new AtomicLong();
+        this.evictions = new AtomicLong();
+        this.expirations = new AtomicLong();
+    }
+
+    public boolean isEnabled() {
+        return maxEntries > 0;
+    }
+
+    /**
+     * @return the number of entries kept at most.
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return the time an entry is kept since it was stored.
+     */
+    public long getTtlMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(ttlNanos);
+    }
+
+    public Eviction getEviction() {
+        return eviction;
+    }
+
+    /**
+     * @return the number of entries, the expired ones are counted until they
+     * are found.
+     */
+    public synchronized int getSize() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of opens answered by the cache.
+     */
+    public long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of opens that weren't in the cache.
+     */
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return the number of entries dropped because the cache was full.
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return the number of entries dropped because their time to live
+     * passed.
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    /**
+     * Drops every entry.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    @Override
+    public String toString() {
+        return "OpenedKeyCache{"
+               + "maxEntries=" + maxEntries
+               + ", ttlMillis=" + getTtlMillis()
+               + ", eviction=" + eviction
+               + ", size=" + getSize()
+               + ", hits=" + getHits()
+               + ", misses=" + getMisses()
+               + ", evictions=" + getEvictions()
+               + ", expirations=" + getExpirations()
+               + '}';
+    }
+
+    /**
+     * Returns the data of the key from the cache, or opens it and stores its
+     * data if it's not there.
+     */
+    String open(
+        Key key,
+        String ownerKeyPassword,
+        String userKeyPassword,
+        KeyOil dimensionLengthOil,
+        Opening opening
+    ) throws InvalidKeyException {
+        if (!isEnabled()) {
+            return opening.open();
+        }
+        final ByteBuffer id = identify(
+            key,
+            ownerKeyPassword,
+            userKeyPassword,
+            dimensionLengthOil
+        );
+        final String cached = (id == null) ? null : find(id);
+        final String data;
+        if (cached != null) {
+            hits.incrementAndGet();
+            return cached;
+        }
+        misses.incrementAndGet();
+        data = opening.open();
+        if (id != null) {
+            store(id, data);
+        }
+        return data;
+    }
+
+    private ByteBuffer identify(
+        Key key,
+        String ownerKeyPassword,
+        String userKeyPassword,
+        KeyOil dimensionLengthOil
+    ) {
+        try {
+            final Mac mac = MACS.get();
+            final byte[] owner = ownerKeyPassword.getBytes(StandardCharsets.UTF_8);
+            final byte[] user = userKeyPassword.getBytes(StandardCharsets.UTF_8);
+            mac.init(identifierKey);
+            updateField(mac, key.getFingerprint());
+            updateField(mac, owner);
+            updateField(mac, user);
+            updateField(mac, dimensionLengthOil.toString().getBytes(StandardCharsets.US_ASCII));
+            Arrays.fill(owner, (byte) 0);
+            Arrays.fill(user, (byte) 0);
+            return ByteBuffer.wrap(mac.doFinal());
+        }
+        catch (Exception e) {
+            // The cache was replaced and closed, the key is opened without it
+            return null;
+        }
+    }
+
+    private String find(ByteBuffer id) {
+        final Entry entry;
+        synchronized (this) {
+            entry = entries.get(id);
+            if (entry == null) {
+                return null;
+            }
+            if (entry.isExpired(RandomnessProvider.nanoTime())) {
+                entries.remove(id);
+                expirations.incrementAndGet();
+                return null;
+            }
+            entry.uses++;
+        }
+        try {
+            final Cipher cipher = CIPHERS.get();
+            final byte[] data;
+            final String string;
+            cipher.init(Cipher.DECRYPT_MODE, entryKey, new GCMParameterSpec(TAG_LENGTH, entry.iv));
+            cipher.updateAAD(id.array());
+            data = cipher.doFinal(entry.encrypted);
+            string = new String(data, StandardCharsets.UTF_8);
+            Arrays.fill(data, (byte) 0);
+            return string;
+        }
+        catch (Exception e) {
+            return null;
+        }
+    }
+
+    private void store(ByteBuffer id, String data) {
+        final Entry entry;
+        try {
+            final Cipher cipher = CIPHERS.get();
+            final byte[] iv = new byte[IV_SIZE];
+            final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+            random.nextBytes(iv);
+            cipher.init(Cipher.ENCRYPT_MODE, entryKey, new GCMParameterSpec(TAG_LENGTH, iv));
+            cipher.updateAAD(id.array());
+            entry = new Entry(iv, cipher.doFinal(bytes), RandomnessProvider.nanoTime() + ttlNanos);
+            Arrays.fill(bytes, (byte) 0);
+        }
+        catch (Exception e) {
+            return;
+        }
+        synchronized (this) {
+            if (!entries.containsKey(id) && entries.size() >= maxEntries) {
+                evict();
+            }
+            entries.put(id, entry);
+        }
+    }
+
+    private void evict() {
+        final long now = RandomnessProvider.nanoTime();
+        final Iterator<Entry> iterator = entries.values().iterator();
+        Entry victim = null;
+        // From the least to the most recently used
+        while (iterator.hasNext()) {
+            final Entry entry = iterator.next();
+            if (entry.isExpired(now)) {
+                iterator.remove();
+                expirations.incrementAndGet();
+                return;
+            }
+            if (victim == null
+                || (eviction == Eviction.LEAST_FREQUENTLY_USED && entry.uses < victim.uses)) {
+                victim = entry;
+            }
+            if (eviction == Eviction.LEAST_RECENTLY_USED) {
+                break;
+            }
+        }
+        entries.values().remove(victim);
+        evictions.incrementAndGet();
+    }
+
+    private synchronized void close() {
+        entries.clear();
+        if (isEnabled()) {
+            identifierKey.close();
+            entryKey.close();
+        }
+    }
+
+    /**
+     * Opens the key without the cache.
+     */
+    interface Opening {
+        String open() throws InvalidKeyException;
+    }
+
+    private static final class Entry {
+        final byte[] iv;
+        final byte[] encrypted;
+        final long expiresAtNanos;
+        long uses;
+
+        Entry(byte[] iv, byte[] encrypted, long expiresAtNanos) {
+            this.iv = iv;
+            this.encrypted = encrypted;
+            this.expiresAtNanos = expiresAtNanos;
+            this.uses = 0;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAtNanos >= 0;
+        }
+    }
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import javax.crypto.BadPaddingException;
+import javax.crypto.Cipher;
+import javax.crypto.IllegalBlockSizeException;
+import javax.crypto.SecretKey;
+import javax.crypto.spec.IvParameterSpec;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Decrypts AES/CBC ciphertexts into a {@link SecretBuffer}, large ones on a
+ * {@link ForkJoinPool}.<br> A CBC block only depends on its own ciphertext
+ * and the ciphertext of the previous block, so the input is split into block
+ * aligned segments that are decrypted independently into the same output.
+ * The plain text goes through a small chunk on the heap that is zeroed when
+ * the segment is done.
+ *
+ * @author Tobias Briones
+ */
+final class ParallelDecryption {
+    /**
+     * Minimum length of a ciphertext to be decrypted in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+    private static final int SEGMENT_LENGTH = 1 << 17;
+    private static final int CHUNK_LENGTH = 1 << 13;
+    private static final String TRANSFORMATION = "AES/CBC/NoPadding";
+
+    /**
+     * Decrypts the input and removes its PKCS5 padding.
+     *
+     * @return the length of the plain text written into the output.
+     */
+    static int decrypt(
+        byte[] input,
+        SecretBuffer output,
+        SecretKey secretKey,
+        byte[] iv
+    ) throws Exception {
+        if (input.length == 0 || input.length % Core.BLOCK_SIZE != 0) {
+            throw new IllegalBlockSizeException();
+        }
+        if (input.length < PARALLEL_THRESHOLD) {
+            decryptSegment(input, output, secretKey, iv, 0, input.length);
+            return input.length - getPaddingLength(output, input.length);
+        }
+        try {
+            ForkJoinPool.commonPool().invoke(new DecryptionTask(
+                input,
+                output,
+                secretKey,
+                iv,
+                0,
+                input.length
+            ));
+        }
+        catch (SegmentException e) {
+            throw (Exception) e.getCause();
+        }
+        return input.length - getPaddingLength(output, input.length);
+    }
+
+    private static int getPaddingLength(
+        SecretBuffer output,
+        int length
+    ) throws BadPaddingException {
+        final int paddingLength = output.get(length - 1) & 0xFF;
+        if (paddingLength < 1 || paddingLength > Core.BLOCK_SIZE) {
+            throw new BadPaddingException();
+        }
+        for (int i = length - paddingLength; i < length; i++) {
+            if ((output.get(i) & 0xFF) != paddingLength) {
+                throw new BadPaddingException();
+            }
+        }
+        return paddingLength;
+    }
+
+    private static void decryptSegment(
+        byte[] input,
+        SecretBuffer output,
+        SecretKey secretKey,
+        byte[] iv,
+        int from,
+        int to
+    ) throws Exception {
+        final IvParameterSpec ivParameterSpec = (from == 0)
+                                                ? new IvParameterSpec(iv)
+                                                : new IvParameterSpec(
+                                                    input,
+                                                    from - Core.BLOCK_SIZE,
+                                                    Core.BLOCK_SIZE
+                                                );
+        final Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        final byte[] chunk = new byte[Math.min(CHUNK_LENGTH, to - from)];
+        cipher.init(Cipher.DECRYPT_MODE, secretKey, ivParameterSpec);
+        try {
+            for (int i = from; i < to; i += chunk.length) {
+                final int length = Math.min(chunk.length, to - i);
+                final int decrypted = cipher.update(input, i, length, chunk, 0);
+                output.put(i, chunk, 0, decrypted);
+            }
+            cipher.doFinal();
+        }
+        finally {
+            Arrays.fill(chunk, (byte) 0);
+        }
+    }
+
+    private static final class DecryptionTask extends RecursiveAction {
+        private static final long serialVersionUID = 5920135781104425316L;
+        private final byte[] input;
+        private final SecretBuffer output;
+        private final SecretKey secretKey;
+        private final byte[] iv;
+        private final int from;
+        private final int to;
+
+        DecryptionTask(
+            byte[] input,
+            SecretBuffer output,
+            SecretKey secretKey,
+            byte[] iv,
+            int from,
+            int to
+        ) {
+            this.input = input;
+            this.output = output;
+            this.secretKey = secretKey;
+            this.iv = iv;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            final int length = to - from;
+            if (length <= SEGMENT_LENGTH) {
+                try {
+                    decryptSegment(input, output, secretKey, iv, from, to);
+                }
+                catch (Exception e) {
+                    throw new SegmentException(e);
+                }
+                return;
+            }
+            final int middle = from + (length / 2 / Core.BLOCK_SIZE) * Core.BLOCK_SIZE;
+            invokeAll(
+                new DecryptionTask(input, output, secretKey, iv, from, middle),
+                new DecryptionTask(input, output, secretKey, iv, middle, to)
+            );
+        }
+    }
+
+    private static final class SegmentException extends RuntimeException {
+        private static final long serialVersionUID = -3021868398204127339L;
+
+        SegmentException(Exception cause) {
+            super(cause);
+        }
+    }
+
+    private ParallelDecryption() {}
+}
@@ -0,0 +1,264 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import java.nio.ByteBuffer;
+import java.security.SecureRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Works on large dimensions on a {@link ForkJoinPool}.<br> The position of
+ * every data symbol in the dimension is known from {@link DimensionLayout}, so
+ * the data is split into ranges of symbols that are processed independently.
+ *
+ * @author Tobias Briones
+ */
+final class ParallelDimension {
+    /**
+     * Minimum length of a dimension to be processed in parallel.
+     */
+    static final int PARALLEL_THRESHOLD = 1 << 20;
+    private static final int SEGMENT_LENGTH = 1 << 15;
+
+    /**
+     * Generates the dimension of the data into the region of the dimension
+     * that starts at {@code offset}, every range of the data writes its oil
+     * with its own {@link SecureRandom} from {@link RandomnessProvider} into
+     * its own region.
+     */
+    static void generate(
+        byte[] data,
+        DimensionLayout layout,
+        int textType,
+        byte[] dimension,
+        int offset
+    ) {
+        ForkJoinPool.commonPool().invoke(new GenerationTask(
+            data,
+            layout,
+            textType,
+            dimension,
+            offset,
+            0,
+            data.length,
+            RandomnessProvider.newStreamSeed()
+        ));
+    }
+
+    /**
+     * Removes the oil from the region of the dimension that starts at {@code
+     * offset} into the given data, it returns the same data as {@link
+     * ByteDimension#read} does sequentially.
+     */
+    static void retrieveData(
+        ByteBuffer dimension,
+        int offset,
+        DimensionLayout layout,
+        byte[] data
+    ) {
+        ForkJoinPool.commonPool().invoke(new RetrievalTask(
+            dimension,
+            offset,
+            layout,
+            data,
+            0,
+            data.length
+        ));
+    }
+
+    /**
+     * Removes the oil from a text dimension of a key of version {@link
+     * Key#VERSION_TEXT_DIMENSION}, it returns the same data as {@link
+     * MergeKeyOpener} does sequentially.
+     */
+    static String retrieveData(
+        String dimension,
+        KeyOil dimensionLengthOil,
+        boolean keepConstantFactor
+    ) {
+        final DimensionLayout layout = DimensionLayout.of(
+            dimensionLengthOil,
+            keepConstantFactor
+        );
+        final char[] data = new char[(int) layout.dataLengthOf(dimension.length())];
+        ForkJoinPool.commonPool().invoke(new TextRetrievalTask(
+            dimension,
+            layout,
+            data,
+            0,
+            data.length
+        ));
+        return new String(data);
+    }
+
+    private static final class GenerationTask extends RecursiveAction {
+        private static final long serialVersionUID = 2407788312593622183L;
+        private final byte[] data;
+        private final DimensionLayout layout;
+        private final int textType;
+        private final byte[] dimension;
+        private final int offset;
+        private final int from;
+        private final int to;
+        private final long streamSeed;
+
+        GenerationTask(
+            byte[] data,
+            DimensionLayout layout,
+            int textType,
+            byte[] dimension,
+            int offset,
+            int from,
+            int to,
+            long streamSeed
+        ) {
+            this.data = data;
+            this.layout = layout;
+            this.textType = textType;
+            this.dimension = dimension;
+            this.offset = offset;
+            this.from = from;
+            this.to = to;
+            this.streamSeed = streamSeed;
+        }
+
+        @Override
+        protected void compute() {
+            final int length = to - from;
+            if (length <= SEGMENT_LENGTH) {
+                ByteDimension.write(
+                    data,
+                    layout,
+                    textType,
+                    dimension,
+                    offset,
+                    from,
+                    to,
+                    RandomnessProvider.newRandomStream(streamSeed, from)
+                );
+                return;
+            }
+            final int middle = from + length / 2;
+            invokeAll(
+                new GenerationTask(
+                    data,
+                    layout,
+                    textType,
+                    dimension,
+                    offset,
+                    from,
+                    middle,
+                    streamSeed
+                ),
+                new GenerationTask(
+                    data,
+                    layout,
+                    textType,
+                    dimension,
+                    offset,
+                    middle,
+                    to,
+                    streamSeed
+                )
+            );
+        }
+    }
+
+    private static final class RetrievalTask extends RecursiveAction {
+        private static final long serialVersionUID = 1698043214925788210L;
+        private final ByteBuffer dimension;
+        private final int offset;
+        private final DimensionLayout layout;
+        private final byte[] data;
+        private final int from;
+        private final int to;
+
+        RetrievalTask(
+            ByteBuffer dimension,
+            int offset,
+            DimensionLayout layout,
+            byte[] data,
+            int from,
+            int to
+        ) {
+            this.dimension = dimension;
+            this.offset = offset;
+            this.layout = layout;
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            final int length = to - from;
+            if (length <= SEGMENT_LENGTH) {
+                ByteDimension.read(dimension, offset, layout, data, from, to);
+                return;
+            }
+            final int middle = from + length / 2;
+            invokeAll(
+                new RetrievalTask(dimension, offset, layout, data, from, middle),
+                new RetrievalTask(dimension, offset, layout, data, middle, to)
+            );
+        }
+    }
+
+    private static final class TextRetrievalTask extends RecursiveAction {
+        private static final long serialVersionUID = -6482214097213906734L;
+        private final String dimension;
+        private final DimensionLayout layout;
+        private final char[] data;
+        private final int from;
+        private final int to;
+
+        TextRetrievalTask(
+            String dimension,
+            DimensionLayout layout,
+            char[] data,
+            int from,
+            int to
+        ) {
+            this.dimension = dimension;
+            this.layout = layout;
+            this.data = data;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            final int length = to - from;
+            if (length <= SEGMENT_LENGTH) {
+                retrieveSegment();
+                return;
+            }
+            final int middle = from + length / 2;
+            invokeAll(
+                new TextRetrievalTask(dimension, layout, data, from, middle),
+                new TextRetrievalTask(dimension, layout, data, middle, to)
+            );
+        }
+
+        private void retrieveSegment() {
+            int cursor = (int) layout.offsetOf(from);
+            for (int i = from; i < to; i++) {
+                data[i] = dimension.charAt(cursor);
+                cursor += layout.positiveOilAt(i) + 1 + layout.negativeOilAt(i + 1);
+            }
+        }
+    }
+
+    private ParallelDimension() {}
+}
@@ -0,0 +1,161 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.LongSupplier;
+
+/**
+ * Provides the randomness and the clock of the generator and opener: the
+ * salts, initialization vectors, data keys, BCrypt salts and oil of the keys,
+ * and the time of {@link OpenedKeyCache}.<br> By default, the randomness
+ * comes from {@link SecureRandom} and the time from {@link
+ * System#nanoTime()}. The tests of this package can use a seeded mode
+ * instead, where the same seed and the same calls produce the same keys byte
+ * by byte, so a failure is reproduced from its seed, and the clock can be
+ * moved by hand.<br> Keys generated in seeded mode are predictable, so the
+ * mode can't be switched from outside the package.
+ *
+ * @author Tobias Briones
+ * @see MergeKeyGenerator
+ */
+public final class RandomnessProvider {
+    private static final String SEEDED_ALGORITHM = "SHA1PRNG";
+    private static volatile RandomnessProvider instance = new RandomnessProvider(
+        false,
+        0,
+        System::nanoTime
+    );
+
+    /**
+     * Uses randomness derived from the given seed and the system clock, for
+     * tests only.
+     *
+     * @param seed seed of the randomness.
+     */
+    static void useSeeded(long seed) {
+        useSeeded(seed, System::nanoTime);
+    }
+
+    /**
+     * Uses randomness derived from the given seed and the given clock, for
+     * tests only.
+     *
+     * @param seed      seed of the randomness.
+     * @param nanoClock clock in nanoseconds like {@link System#nanoTime()}.
+     */
+    static void useSeeded(long seed, LongSupplier nanoClock) {
+        instance = new RandomnessProvider(true, seed, nanoClock);
+    }
+
+    /**
+     * Goes back to the default {@link SecureRandom} and system clock.
+     */
+    static void useSecure() {
+        instance = new RandomnessProvider(false, 0, System::nanoTime);
+    }
+
+    /**
+     * @return {@code true} if and only if the randomness is seeded.
+     */
+    public static boolean isSeeded() {
+        return instance.seeded;
+    }
+
+    /**
+     * @return a new source of randomness, seeded ones are derived from the
+     * seed and the number of sources created before.
+     */
+    static SecureRandom newRandom() {
+        final RandomnessProvider provider = instance;
+        if (!provider.seeded) {
+            return new SecureRandom();
+        }
+        return seededRandom(provider.seed, provider.streams.getAndIncrement(), 0);
+    }
+
+    /**
+     * @return the seed of the streams of a parallel task, see {@link
+     * #newRandomStream(long, long)}.
+     */
+    static long newStreamSeed() {
+        final RandomnessProvider provider = instance;
+        return provider.seeded ? provider.streams.getAndIncrement() : 0;
+    }
+
+    /**
+     * Returns the source of randomness of one part of a parallel task, a
+     * seeded one only depends on the seed of the task and the part, so it
+     * doesn't depend on the order the parts run.
+     *
+     * @param streamSeed seed of the task from {@link #newStreamSeed()}.
+     * @param stream     index of the part.
+     */
+    static SecureRandom newRandomStream(long streamSeed, long stream) {
+        final RandomnessProvider provider = instance;
+        if (provider.seeded) {
+            return seededRandom(provider.seed, streamSeed, stream + 1);
+        }
+        // A self-seeded instance per part doesn't share the lock of the
+        // default native generator
+        try {
+            return SecureRandom.getInstance(SEEDED_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            return new SecureRandom();
+        }
+    }
+
+    /**
+     * @return the current time in nanoseconds, only meaningful to measure
+     * elapsed time.
+     */
+    static long nanoTime() {
+        return instance.nanoClock.getAsLong();
+    }
+
+    private static SecureRandom seededRandom(long seed, long stream, long part) {
+        final SecureRandom random;
+        try {
+            random = SecureRandom.getInstance(SEEDED_ALGORITHM);
+        }
+        catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        // Seeded before it's used, so it doesn't seed itself
+        random.setSeed(toBytes(seed, stream, part));
+        return random;
+    }
+
+    private static byte[] toBytes(long... values) {
+        final byte[] bytes = new byte[values.length * Long.BYTES];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (values[i / Long.BYTES] >>> (8 * (Long.BYTES - 1 - i % Long.BYTES)));
+        }
+        return bytes;
+    }
+
+    private final boolean seeded;
+    private final long seed;
+    private final LongSupplier nanoClock;
+    private final AtomicLong streams;
+
+    private RandomnessProvider(boolean seeded, long seed, LongSupplier nanoClock) {
+        this.seeded = seeded;
+        this.seed = seed;
+        this.nanoClock = nanoClock;
+        this.streams = new AtomicLong();
+    }
+}
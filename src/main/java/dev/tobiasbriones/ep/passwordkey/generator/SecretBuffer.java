@@ -0,0 +1,242 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Secret bytes, like derived keys and decrypted dimensions, stored in direct
+ * memory out of the heap.<br> Closing the buffer zeroes its memory right away
+ * instead of leaving the secret until the garbage collector reuses it, and
+ * gives the memory back to a pool, so buffers are reused without allocating
+ * direct memory again and the heap only holds their small handles.<br> The
+ * pool keeps buffers of a power of two capacity up to {@link
+ * #MAX_POOLED_CAPACITY} bytes, larger buffers are zeroed as well but their
+ * memory is released when the handle is collected. Threads can read and
+ * write a buffer at the same time if their ranges don't overlap, but it must
+ * not be used after it's closed.
+ *
+ * @author Tobias Briones
+ * @see Core
+ */
+public final class SecretBuffer implements AutoCloseable {
+    /**
+     * Capacity of the largest buffer kept by the pool.
+     */
+    public static final int MAX_POOLED_CAPACITY = 1 << 20;
+    private static final int MIN_POOLED_CAPACITY = 64;
+    private static final long MAX_POOLED_BYTES_PER_CAPACITY = 4L << 20;
+    private static final int SIZE_CLASSES = Integer.numberOfTrailingZeros(MAX_POOLED_CAPACITY)
+                                            - Integer.numberOfTrailingZeros(MIN_POOLED_CAPACITY)
+                                            + 1;
+    private static final byte[] ZEROS = new byte[8192];
+    private static final SizeClass[] POOL = createPool();
+    private static final AtomicLong allocatedBytes = new AtomicLong();
+    private static final AtomicLong inUseBytes = new AtomicLong();
+
+    private static SizeClass[] createPool() {
+        final SizeClass[] pool = new SizeClass[SIZE_CLASSES];
+        for (int i = 0; i < SIZE_CLASSES; i++) {
+            pool[i] = new SizeClass();
+        }
+        return pool;
+    }
+
+    /**
+     * @param length number of bytes of the buffer.
+     *
+     * @return a zeroed buffer of the given length.
+     */
+    public static SecretBuffer allocate(int length) {
+        if (length < 0) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        final int sizeClass = sizeClassOf(length);
+        ByteBuffer memory = (sizeClass == -1) ? null : POOL[sizeClass].buffers.poll();
+        if (memory == null) {
+            final int capacity = (sizeClass == -1) ? length : MIN_POOLED_CAPACITY << sizeClass;
+            memory = ByteBuffer.allocateDirect(capacity);
+            allocatedBytes.addAndGet(capacity);
+        }
+        else {
+            POOL[sizeClass].count.decrementAndGet();
+        }
+        inUseBytes.addAndGet(memory.capacity());
+        return new SecretBuffer(memory, length);
+    }
+
+    /**
+     * Moves the given secret into a new buffer, the array is zeroed.
+     *
+     * @param secret the secret to move out of the heap.
+     *
+     * @return a buffer with the bytes of the secret.
+     */
+    public static SecretBuffer take(byte[] secret) {
+        final SecretBuffer buffer = allocate(secret.length);
+        buffer.put(0, secret, 0, secret.length);
+        Arrays.fill(secret, (byte) 0);
+        return buffer;
+    }
+
+    /**
+     * @return the bytes of direct memory allocated by the buffers so far,
+     * pooled buffers are counted once.
+     */
+    public static long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    /**
+     * @return the capacity of the buffers that are not closed yet.
+     */
+    public static long getInUseBytes() {
+        return inUseBytes.get();
+    }
+
+    private static int sizeClassOf(int length) {
+        if (length > MAX_POOLED_CAPACITY) {
+            return -1;
+        }
+        final int capacity = Math.max(
+            MIN_POOLED_CAPACITY,
+            Integer.highestOneBit(Math.max(length - 1, 1)) << 1
+        );
+        return Integer.numberOfTrailingZeros(capacity)
+               - Integer.numberOfTrailingZeros(MIN_POOLED_CAPACITY);
+    }
+
+    private static void zero(ByteBuffer memory, int length) {
+        final ByteBuffer view = memory.duplicate();
+        view.clear();
+        for (int i = 0; i < length; i += ZEROS.length) {
+            view.put(ZEROS, 0, Math.min(ZEROS.length, length - i));
+        }
+    }
+
+    private volatile ByteBuffer memory;
+    private final int length;
+
+    private SecretBuffer(ByteBuffer memory, int length) {
+        this.memory = memory;
+        this.length = length;
+    }
+
+    /**
+     * @return the number of bytes of the buffer.
+     */
+    public int length() {
+        return length;
+    }
+
+    public byte get(int index) {
+        checkRange(index, 1);
+        return memory.get(index);
+    }
+
+    /**
+     * Copies the bytes from {@code index} to {@code index + length - 1} into
+     * the given array, the copy is on the heap, so it should be zeroed when
+     * it's no longer needed.
+     */
+    public void get(int index, byte[] dst, int offset, int length) {
+        final ByteBuffer view;
+        checkRange(index, length);
+        view = memory.duplicate();
+        view.position(index);
+        view.get(dst, offset, length);
+    }
+
+    public void put(int index, byte value) {
+        checkRange(index, 1);
+        memory.put(index, value);
+    }
+
+    public void put(int index, byte[] src, int offset, int length) {
+        final ByteBuffer view;
+        checkRange(index, length);
+        view = memory.duplicate();
+        view.position(index);
+        view.put(src, offset, length);
+    }
+
+    /**
+     * @return {@code true} if and only if the buffer was closed.
+     */
+    public boolean isClosed() {
+        return memory == null;
+    }
+
+    /**
+     * Returns a view of the bytes of the buffer that shares its memory, it's
+     * valid until the buffer is closed.
+     */
+    ByteBuffer view() {
+        final ByteBuffer view;
+        checkOpen();
+        view = memory.duplicate();
+        view.clear();
+        view.limit(length);
+        return view;
+    }
+
+    /**
+     * Zeroes the memory of the buffer and gives it back to the pool, closing
+     * the buffer more than once has no effect.
+     */
+    @Override
+    public synchronized void close() {
+        final ByteBuffer closed = memory;
+        final int sizeClass = sizeClassOf(length);
+        if (closed == null) {
+            return;
+        }
+        memory = null;
+        zero(closed, length);
+        inUseBytes.addAndGet(-closed.capacity());
+        if (sizeClass != -1
+            && (long) (POOL[sizeClass].count.get() + 1) * closed.capacity()
+               <= MAX_POOLED_BYTES_PER_CAPACITY) {
+            POOL[sizeClass].count.incrementAndGet();
+            POOL[sizeClass].buffers.offer(closed);
+        }
+    }
+
+    private void checkOpen() {
+        if (memory == null) {
+            throw new IllegalStateException("The secret buffer is closed");
+        }
+    }
+
+    private void checkRange(int index, int rangeLength) {
+        checkOpen();
+        if (index < 0 || rangeLength < 0 || index > length - rangeLength) {
+            throw new IndexOutOfBoundsException(
+                "Invalid range from " + index + " of length " + rangeLength
+            );
+        }
+    }
+
+    /**
+     * Pooled buffers of one capacity.
+     */
+    private static final class SizeClass {
+        final Queue<ByteBuffer> buffers = new ConcurrentLinkedQueue<>();
+        final AtomicInteger count = new AtomicInteger();
+    }
+}
@@ -22,7 +22,14 @@ package dev.tobiasbriones.ep.passwordkey.generator;
 public class UnsupportedDataKeyException extends Exception {
     private static final long serialVersionUID = 9106246786963447411L;
 
-    protected UnsupportedDataKeyException() {
+    public UnsupportedDataKeyException() {
         super("It was no possible to generate a key for the input data");
     }
+
+    /**
+     * @param reason why the key can't be generated.
+     */
+    public UnsupportedDataKeyException(String reason) {
+        super("It was no possible to generate a key for the input data: " + reason);
+    }
 }
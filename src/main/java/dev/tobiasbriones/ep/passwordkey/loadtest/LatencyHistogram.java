@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.loadtest;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of latencies in nanoseconds with a fixed relative precision, in
+ * the way of HdrHistogram.<br> Values are counted into buckets whose width
+ * doubles every {@code 2^(PRECISION_BITS - 1)} buckets, so any value is
+ * reported with an error under 1% whatever its magnitude, and recording is a
+ * few bit operations and an atomic increment, so it can be shared by many
+ * threads.
+ *
+ * @author Tobias Briones
+ */
+public final class LatencyHistogram {
+    private static final int PRECISION_BITS = 8;
+    private static final int HALF_BUCKET_COUNT = 1 << (PRECISION_BITS - 1);
+    private static final int BUCKET_COUNT = (64 - PRECISION_BITS + 2) * HALF_BUCKET_COUNT;
+
+    private static int indexOf(long value) {
+        final int shift = Math.max(0, 64 - Long.numberOfLeadingZeros(value) - PRECISION_BITS);
+        final int subBucket = (int) (value >>> shift);
+        return (shift == 0) ? subBucket : shift * HALF_BUCKET_COUNT + subBucket;
+    }
+
+    private static long highestValueOf(int index) {
+        if (index < 2 * HALF_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = index / HALF_BUCKET_COUNT - 1;
+        final long subBucket = index - (long) shift * HALF_BUCKET_COUNT;
+        return (subBucket << shift) + (1L << shift) - 1;
+    }
+
+    private final AtomicLongArray counts;
+    private final AtomicLong count;
+    private final AtomicLong sum;
+    private final AtomicLong max;
+
+    public LatencyHistogram() {
+        this.counts = new AtomicLongArray(BUCKET_COUNT);
+        this.count = new AtomicLong();
+        this.sum = new AtomicLong();
+        this.max = new AtomicLong();
+    }
+
+    /**
+     * @param nanos latency to record, negative values are recorded as 0.
+     */
+    public void record(long nanos) {
+        final long value = Math.max(0, nanos);
+        counts.incrementAndGet(indexOf(value));
+        count.incrementAndGet();
+        sum.addAndGet(value);
+        max.accumulateAndGet(value, Math::max);
+    }
+
+    /**
+     * @param other histogram whose values are added to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            final long bucketCount = other.counts.get(i);
+            if (bucketCount != 0) {
+                counts.addAndGet(i, bucketCount);
+            }
+        }
+        count.addAndGet(other.count.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    /**
+     * @return the number of recorded values.
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return the largest recorded value.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @return the mean of the recorded values.
+     */
+    public double getMean() {
+        final long total = count.get();
+        return (total == 0) ? 0 : sum.get() / (double) total;
+    }
+
+    /**
+     * @param percentile percentile from 0 to 100.
+     *
+     * @return the value at or below which the given percentage of the
+     * recorded values are, within the precision of the histogram.
+     */
+    public long getValueAtPercentile(double percentile) {
+        final long total = count.get();
+        final long rank;
+        long seen = 0;
+        if (total == 0) {
+            return 0;
+        }
+        rank = Math.max(1, (long) Math.ceil(Math.min(percentile, 100) / 100 * total));
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min(highestValueOf(i), max.get());
+            }
+        }
+        return max.get();
+    }
+}
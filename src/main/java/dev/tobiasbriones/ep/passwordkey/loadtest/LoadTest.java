@@ -0,0 +1,232 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.loadtest;
+
+import dev.tobiasbriones.ep.passwordkey.PasswordProtocol;
+import dev.tobiasbriones.ep.passwordkey.generator.Key;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyGenerator;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyOpener;
+import dev.tobiasbriones.ep.passwordkey.loadtest.LoadTestConfig.Operation;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Drives a configurable mix of key generation, key opening and password
+ * quality checks on many threads and records the latency of every
+ * operation.<br> In closed mode every thread runs the next operation when
+ * the previous one finishes. In fixed mode the operations are scheduled at a
+ * fixed rate and their latency is measured from the time they were scheduled
+ * to start, not from the time they actually started, so a stall counts for
+ * every operation that should have run during it (no coordinated omission).
+ *
+ * @author Tobias Briones
+ * @see LoadTestConfig
+ * @see LoadTestReport
+ */
+public final class LoadTest {
+    private static final String OWNER_PASSWORD = "load-test-owner";
+    private static final String USER_PASSWORD = "load-test-user";
+    private static final String DATA_SYMBOLS =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz {}:\",";
+    private static final String[] PASSWORDS = {
+        "password",
+        "12345678",
+        "aaaaaaaaaaaaaaaa",
+        "correct horse battery staple",
+        "Tr0ub4dor&3",
+        "qwertyuiop",
+        "S3cure-but-short",
+        "a much longer passphrase with spaces"
+    };
+    private final LoadTestConfig config;
+
+    public LoadTest(LoadTestConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * Generates the keys to open, runs the warm-up and then measures.
+     *
+     * @return the report of the measured run.
+     *
+     * @throws Exception if the keys to open can't be generated.
+     */
+    public LoadTestReport run() throws Exception {
+        final List<OpenableKey> keys = generateKeys();
+        runPhase(keys, config.getWarmupSeconds());
+        return runPhase(keys, config.getDurationSeconds());
+    }
+
+    private List<OpenableKey> generateKeys() throws Exception {
+        final List<OpenableKey> keys = new ArrayList<>(config.getKeys());
+        for (int i = 0; i < config.getKeys(); i++) {
+            final KeyOil oil = randomOil();
+            keys.add(new OpenableKey(
+                MergeKeyGenerator.generateKey(
+                    randomData(),
+                    OWNER_PASSWORD,
+                    USER_PASSWORD,
+                    oil
+                ),
+                oil
+            ));
+        }
+        return keys;
+    }
+
+    private LoadTestReport runPhase(
+        List<OpenableKey> keys,
+        int seconds
+    ) throws InterruptedException {
+        final Operation[] operations = Operation.values();
+        final LatencyHistogram[] histograms = new LatencyHistogram[operations.length];
+        final AtomicLong[] errors = new AtomicLong[operations.length];
+        final Thread[] threads = new Thread[config.getThreads()];
+        final AtomicLong scheduled = new AtomicLong();
+        final long start = System.nanoTime();
+        final long end = start + TimeUnit.SECONDS.toNanos(seconds);
+        for (int i = 0; i < operations.length; i++) {
+            histograms[i] = new LatencyHistogram();
+            errors[i] = new AtomicLong();
+        }
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(
+                () -> {
+                    while (true) {
+                        final long intendedStart;
+                        if (config.getMode() == LoadTestConfig.Mode.FIXED) {
+                            intendedStart = start + (long) (
+                                scheduled.getAndIncrement() * 1e9 / config.getRate()
+                            );
+                            if (intendedStart >= end) {
+                                return;
+                            }
+                            waitUntil(intendedStart);
+                        }
+                        else {
+                            intendedStart = System.nanoTime();
+                            if (intendedStart >= end) {
+                                return;
+                            }
+                        }
+                        final Operation operation = randomOperation();
+                        try {
+                            execute(operation, keys);
+                            histograms[operation.ordinal()].record(
+                                System.nanoTime() - intendedStart
+                            );
+                        }
+                        catch (Exception e) {
+                            errors[operation.ordinal()].incrementAndGet();
+                        }
+                    }
+                },
+                "load-test-" + i
+            );
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return new LoadTestReport(
+            config,
+            System.nanoTime() - start,
+            histograms,
+            errors
+        );
+    }
+
+    private void execute(Operation operation, List<OpenableKey> keys) throws Exception {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        switch (operation) {
+            case GENERATE_KEY:
+                MergeKeyGenerator.generateKey(
+                    randomData(),
+                    OWNER_PASSWORD,
+                    USER_PASSWORD,
+                    randomOil()
+                );
+                break;
+            case GENERATE_PUBLIC_KEY:
+                MergeKeyGenerator.generatePublicKey(
+                    randomData(),
+                    OWNER_PASSWORD,
+                    randomOil()
+                );
+                break;
+            case OPEN_KEY: {
+                final OpenableKey key = keys.get(random.nextInt(keys.size()));
+                MergeKeyOpener.openKey(key.key, OWNER_PASSWORD, USER_PASSWORD, key.oil);
+                break;
+            }
+            case PASSWORD_QUALITY:
+                PasswordProtocol.getPasswordQuality(PASSWORDS[random.nextInt(PASSWORDS.length)]);
+                break;
+        }
+    }
+
+    private Operation randomOperation() {
+        int remaining = ThreadLocalRandom.current().nextInt(config.getTotalWeight());
+        for (Operation operation : Operation.values()) {
+            remaining -= config.getWeight(operation);
+            if (remaining < 0) {
+                return operation;
+            }
+        }
+        throw new IllegalStateException();
+    }
+
+    private String randomData() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        final int length = random.nextInt(
+            config.getMinDataLength(),
+            config.getMaxDataLength() + 1
+        );
+        final char[] data = new char[length];
+        for (int i = 0; i < length; i++) {
+            data[i] = DATA_SYMBOLS.charAt(random.nextInt(DATA_SYMBOLS.length()));
+        }
+        return new String(data);
+    }
+
+    private KeyOil randomOil() {
+        final ThreadLocalRandom random = ThreadLocalRandom.current();
+        return new KeyOil(
+            random.nextInt(config.getMinNegativeOil(), config.getMaxNegativeOil() + 1),
+            random.nextInt(config.getMinPositiveOil(), config.getMaxPositiveOil() + 1)
+        );
+    }
+
+    private static void waitUntil(long nanoTime) {
+        long remaining;
+        while ((remaining = nanoTime - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    private static final class OpenableKey {
+        private final Key key;
+        private final KeyOil oil;
+
+        OpenableKey(Key key, KeyOil oil) {
+            this.key = key;
+            this.oil = oil;
+        }
+    }
+}
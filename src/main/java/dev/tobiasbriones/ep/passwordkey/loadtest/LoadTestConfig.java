@@ -0,0 +1,207 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.loadtest;
+
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Configuration of a {@link LoadTest} read from properties, every property
+ * is optional:
+ * <ul>
+ *     <li>{@code mode}: {@code closed} (default) to run the operations back
+ *     to back on every thread, or {@code fixed} to start them at a fixed
+ *     rate.</li>
+ *     <li>{@code threads}: number of threads (default 4).</li>
+ *     <li>{@code rate}: operations started per second in fixed mode (default
+ *     10).</li>
+ *     <li>{@code duration}: seconds measured (default 30).</li>
+ *     <li>{@code warmup}: seconds run before measuring (default 5).</li>
+ *     <li>{@code mix.generateKey}, {@code mix.generatePublicKey}, {@code
+ *     mix.openKey}, {@code mix.passwordQuality}: relative weights of the
+ *     operations (default 1, 1, 4 and 4).</li>
+ *     <li>{@code data.minLength}, {@code data.maxLength}: length of the
+ *     generated data (default 16 to 256).</li>
+ *     <li>{@code oil.negative.min}, {@code oil.negative.max}, {@code
+ *     oil.positive.min}, {@code oil.positive.max}: uniform ranges of the oil
+ *     (default 0 to 16).</li>
+ *     <li>{@code keys}: number of keys generated before the run to be opened
+ *     (default 16).</li>
+ * </ul>
+ *
+ * @author Tobias Briones
+ * @see LoadTest
+ */
+public final class LoadTestConfig {
+    public enum Mode {
+        CLOSED, FIXED
+    }
+
+    /**
+     * Operations of the load test.
+     */
+    public enum Operation {
+        GENERATE_KEY("generateKey"),
+        GENERATE_PUBLIC_KEY("generatePublicKey"),
+        OPEN_KEY("openKey"),
+        PASSWORD_QUALITY("passwordQuality");
+
+        private final String propertyName;
+
+        Operation(String propertyName) {
+            this.propertyName = propertyName;
+        }
+
+        /**
+         * @return the name of the operation in configurations and reports.
+         */
+        public String getPropertyName() {
+            return propertyName;
+        }
+    }
+
+    private final Mode mode;
+    private final int threads;
+    private final double rate;
+    private final int durationSeconds;
+    private final int warmupSeconds;
+    private final int[] weights;
+    private final int minDataLength;
+    private final int maxDataLength;
+    private final int minNegativeOil;
+    private final int maxNegativeOil;
+    private final int minPositiveOil;
+    private final int maxPositiveOil;
+    private final int keys;
+
+    /**
+     * @param properties properties of the configuration.
+     *
+     * @throws IllegalArgumentException if a property is invalid.
+     */
+    public LoadTestConfig(Properties properties) {
+        this.mode = Mode.valueOf(
+            properties.getProperty("mode", "closed").toUpperCase(Locale.ROOT)
+        );
+        this.threads = positive(properties, "threads", 4);
+        this.rate = Double.parseDouble(properties.getProperty("rate", "10"));
+        this.durationSeconds = positive(properties, "duration", 30);
+        this.warmupSeconds = nonNegative(properties, "warmup", 5);
+        this.weights = new int[Operation.values().length];
+        this.weights[Operation.GENERATE_KEY.ordinal()] = nonNegative(properties, "mix.generateKey", 1);
+        this.weights[Operation.GENERATE_PUBLIC_KEY.ordinal()] = nonNegative(properties, "mix.generatePublicKey", 1);
+        this.weights[Operation.OPEN_KEY.ordinal()] = nonNegative(properties, "mix.openKey", 4);
+        this.weights[Operation.PASSWORD_QUALITY.ordinal()] = nonNegative(properties, "mix.passwordQuality", 4);
+        this.minDataLength = positive(properties, "data.minLength", 16);
+        this.maxDataLength = positive(properties, "data.maxLength", 256);
+        this.minNegativeOil = nonNegative(properties, "oil.negative.min", 0);
+        this.maxNegativeOil = nonNegative(properties, "oil.negative.max", 16);
+        this.minPositiveOil = nonNegative(properties, "oil.positive.min", 0);
+        this.maxPositiveOil = nonNegative(properties, "oil.positive.max", 16);
+        this.keys = positive(properties, "keys", 16);
+        // NaN isn't rejected by the comparison
+        if (!(rate > 0) || Double.isInfinite(rate) || minDataLength > maxDataLength
+            || minNegativeOil > maxNegativeOil || minPositiveOil > maxPositiveOil) {
+            throw new IllegalArgumentException("Invalid load test configuration");
+        }
+        if (getTotalWeight() == 0) {
+            throw new IllegalArgumentException("The mix has no operations");
+        }
+    }
+
+    private static int positive(Properties properties, String name, int defaultValue) {
+        final int value = nonNegative(properties, name, defaultValue);
+        if (value == 0) {
+            throw new IllegalArgumentException(name + " must be positive");
+        }
+        return value;
+    }
+
+    private static int nonNegative(Properties properties, String name, int defaultValue) {
+        final String value = properties.getProperty(name);
+        final int number;
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            number = Integer.parseInt(value.trim());
+        }
+        catch (NumberFormatException e) {
+            throw new IllegalArgumentException(name + " must be a number");
+        }
+        if (number < 0) {
+            throw new IllegalArgumentException(name + " can't be negative");
+        }
+        return number;
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public double getRate() {
+        return rate;
+    }
+
+    public int getDurationSeconds() {
+        return durationSeconds;
+    }
+
+    public int getWarmupSeconds() {
+        return warmupSeconds;
+    }
+
+    public int getWeight(Operation operation) {
+        return weights[operation.ordinal()];
+    }
+
+    public int getTotalWeight() {
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        return total;
+    }
+
+    public int getMinDataLength() {
+        return minDataLength;
+    }
+
+    public int getMaxDataLength() {
+        return maxDataLength;
+    }
+
+    public int getMinNegativeOil() {
+        return minNegativeOil;
+    }
+
+    public int getMaxNegativeOil() {
+        return maxNegativeOil;
+    }
+
+    public int getMinPositiveOil() {
+        return minPositiveOil;
+    }
+
+    public int getMaxPositiveOil() {
+        return maxPositiveOil;
+    }
+
+    public int getKeys() {
+        return keys;
+    }
+}
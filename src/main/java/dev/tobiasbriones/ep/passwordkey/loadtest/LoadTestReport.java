@@ -0,0 +1,187 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.loadtest;
+
+import dev.tobiasbriones.ep.passwordkey.loadtest.LoadTestConfig.Operation;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Latencies and throughput of every operation of a {@link LoadTest}, it can
+ * be exported as JSON with the latencies in microseconds.
+ *
+ * @author Tobias Briones
+ * @see LoadTest
+ */
+public final class LoadTestReport {
+    private static final double[] PERCENTILES = { 50, 90, 99, 99.9, 100 };
+    private static final String[] PERCENTILE_NAMES = { "p50", "p90", "p99", "p999", "max" };
+    private final LoadTestConfig config;
+    private final long elapsedNanos;
+    private final LatencyHistogram[] histograms;
+    private final AtomicLong[] errors;
+
+    LoadTestReport(
+        LoadTestConfig config,
+        long elapsedNanos,
+        LatencyHistogram[] histograms,
+        AtomicLong[] errors
+    ) {
+        this.config = config;
+        this.elapsedNanos = elapsedNanos;
+        this.histograms = histograms;
+        this.errors = errors;
+    }
+
+    /**
+     * @return the time measured in nanoseconds.
+     */
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * @param operation an operation of the mix.
+     *
+     * @return the latencies of the successful runs of the operation.
+     */
+    public LatencyHistogram getHistogram(Operation operation) {
+        return histograms[operation.ordinal()];
+    }
+
+    /**
+     * @param operation an operation of the mix.
+     *
+     * @return the number of failed runs of the operation.
+     */
+    public long getErrors(Operation operation) {
+        return errors[operation.ordinal()].get();
+    }
+
+    /**
+     * @return the latencies of all the successful operations.
+     */
+    public LatencyHistogram getTotalHistogram() {
+        final LatencyHistogram total = new LatencyHistogram();
+        for (LatencyHistogram histogram : histograms) {
+            total.add(histogram);
+        }
+        return total;
+    }
+
+    /**
+     * @return the report as a JSON object, latencies are in microseconds.
+     */
+    public String toJson() {
+        final StringBuilder json = new StringBuilder();
+        json.append("{\"mode\":\"").append(config.getMode().name().toLowerCase(Locale.ROOT))
+            .append("\",\"threads\":").append(config.getThreads());
+        if (config.getMode() == LoadTestConfig.Mode.FIXED) {
+            json.append(",\"rate\":").append(config.getRate());
+        }
+        json.append(",\"elapsedSeconds\":").append(format(seconds()))
+            .append(",\"total\":");
+        appendJson(json, getTotalHistogram(), totalErrors());
+        json.append(",\"operations\":{");
+        for (Operation operation : Operation.values()) {
+            if (operation.ordinal() > 0) {
+                json.append(',');
+            }
+            json.append('"').append(operation.getPropertyName()).append("\":");
+            appendJson(json, getHistogram(operation), getErrors(operation));
+        }
+        return json.append("}}").toString();
+    }
+
+    @Override
+    public String toString() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            Locale.ROOT,
+            "%-18s %9s %7s %9s %9s %9s %9s %9s %9s%n",
+            "operation",
+            "count",
+            "errors",
+            "ops/s",
+            "p50 ms",
+            "p90 ms",
+            "p99 ms",
+            "p999 ms",
+            "max ms"
+        ));
+        for (Operation operation : Operation.values()) {
+            appendRow(
+                report,
+                operation.getPropertyName(),
+                getHistogram(operation),
+                getErrors(operation)
+            );
+        }
+        appendRow(report, "total", getTotalHistogram(), totalErrors());
+        return report.toString();
+    }
+
+    private void appendJson(StringBuilder json, LatencyHistogram histogram, long errors) {
+        json.append("{\"count\":").append(histogram.getCount())
+            .append(",\"errors\":").append(errors)
+            .append(",\"throughput\":").append(format(histogram.getCount() / seconds()))
+            .append(",\"meanMicros\":").append(format(histogram.getMean() / 1e3));
+        for (int i = 0; i < PERCENTILES.length; i++) {
+            json.append(",\"").append(PERCENTILE_NAMES[i]).append("Micros\":")
+                .append(format(histogram.getValueAtPercentile(PERCENTILES[i]) / 1e3));
+        }
+        json.append('}');
+    }
+
+    private void appendRow(
+        StringBuilder report,
+        String name,
+        LatencyHistogram histogram,
+        long errors
+    ) {
+        report.append(String.format(
+            Locale.ROOT,
+            "%-18s %9d %7d %9.1f",
+            name,
+            histogram.getCount(),
+            errors,
+            histogram.getCount() / seconds()
+        ));
+        for (double percentile : PERCENTILES) {
+            report.append(String.format(
+                Locale.ROOT,
+                " %9.2f",
+                histogram.getValueAtPercentile(percentile) / 1e6
+            ));
+        }
+        report.append(String.format("%n"));
+    }
+
+    private long totalErrors() {
+        long total = 0;
+        for (AtomicLong error : errors) {
+            total += error.get();
+        }
+        return total;
+    }
+
+    private double seconds() {
+        return Math.max(1, elapsedNanos) / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+
+    private static String format(double value) {
+        return String.format(Locale.ROOT, "%.3f", value);
+    }
+}
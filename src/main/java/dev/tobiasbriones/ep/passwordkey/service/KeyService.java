@@ -0,0 +1,489 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.service;
+
+import dev.tobiasbriones.ep.passwordkey.NotAcceptedByPasswordProtocolException;
+import dev.tobiasbriones.ep.passwordkey.generator.InvalidKeyException;
+import dev.tobiasbriones.ep.passwordkey.generator.Key;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyGenerator;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyOpener;
+import dev.tobiasbriones.ep.passwordkey.generator.UnsupportedDataKeyException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A long-running service that generates, opens and validates keys for the
+ * processes of the same host, so they don't pay the start-up and warm-up of
+ * the generator and opener by themselves.<br> The service only listens on the
+ * loopback interface, it's used through {@link KeyServiceClient}.<br>
+ * Concurrent requests to open or validate the same key with the same
+ * credentials are coalesced into a batch that derives the secret key, decrypts
+ * the dimension and checks the user password only once for all of them.
+ *
+ * @author Tobias Briones
+ * @see KeyServiceClient
+ */
+public final class KeyService implements Closeable {
+    /**
+     * Maximum length of a request by default, it fits a key of several
+     * megabytes or the data to generate one.
+     */
+    public static final int DEFAULT_MAX_FRAME_LENGTH = 16 << 20;
+
+    /**
+     * Maximum number of open connections by default.
+     */
+    public static final int DEFAULT_MAX_CONNECTIONS = 256;
+
+    /**
+     * Starts a service on the given port of the loopback interface.
+     *
+     * @param port        port to listen on, or 0 to pick any free port.
+     * @param parallelism number of requests processed at the same time.
+     *
+     * @return the running service.
+     *
+     * @throws IOException if the port can't be bound.
+     */
+    public static KeyService start(int port, int parallelism) throws IOException {
+        return start(port, parallelism, DEFAULT_MAX_FRAME_LENGTH);
+    }
+
+    /**
+     * Starts a service on the given port of the loopback interface, whose
+     * requests are limited to the given length.
+     *
+     * @param port           port to listen on, or 0 to pick any free port.
+     * @param parallelism    number of requests processed at the same time.
+     * @param maxFrameLength maximum length of a request in bytes, a
+     *                       connection that sends a longer one is closed.
+     *
+     * @return the running service.
+     *
+     * @throws IOException if the port can't be bound.
+     */
+    public static KeyService start(
+        int port,
+        int parallelism,
+        int maxFrameLength
+    ) throws IOException {
+        return start(port, parallelism, maxFrameLength, DEFAULT_MAX_CONNECTIONS);
+    }
+
+    /**
+     * Starts a service on the given port of the loopback interface, whose
+     * requests are limited to the given length and whose connections are
+     * limited to the given number.
+     *
+     * @param port           port to listen on, or 0 to pick any free port.
+     * @param parallelism    number of requests processed at the same time.
+     * @param maxFrameLength maximum length of a request in bytes, a
+     *                       connection that sends a longer one is closed.
+     * @param maxConnections maximum number of open connections, further
+     *                       connections are closed as soon as they are
+     *                       accepted.
+     *
+     * @return the running service.
+     *
+     * @throws IOException if the port can't be bound.
+     */
+    public static KeyService start(
+        int port,
+        int parallelism,
+        int maxFrameLength,
+        int maxConnections
+    ) throws IOException {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Parallelism must be positive");
+        }
+        if (maxFrameLength < 1 || maxFrameLength > KeyServiceProtocol.MAX_FRAME_LENGTH) {
+            throw new IllegalArgumentException("Invalid maximum frame length");
+        }
+        if (maxConnections < 1) {
+            throw new IllegalArgumentException("Maximum connections must be positive");
+        }
+        final KeyService service = new KeyService(
+            new ServerSocket(port, 0, InetAddress.getLoopbackAddress()),
+            parallelism,
+            maxFrameLength,
+            maxConnections
+        );
+        service.acceptor.start();
+        return service;
+    }
+
+    private final ServerSocket serverSocket;
+    private final int maxFrameLength;
+    private final Semaphore connectionPermits;
+    private final ExecutorService connections;
+    private final ExecutorService workers;
+    private final ConcurrentMap<OpenRequest, CompletableFuture<OpenResult>> inFlight;
+    private final AtomicLong requests;
+    private final AtomicLong coalescedRequests;
+    private final Thread acceptor;
+
+    private KeyService(
+        ServerSocket serverSocket,
+        int parallelism,
+        int maxFrameLength,
+        int maxConnections
+    ) {
+        this.serverSocket = serverSocket;
+        this.maxFrameLength = maxFrameLength;
+        this.connectionPermits = new Semaphore(maxConnections);
+        // Bounded by the permits, a connection takes one until it's closed
+        this.connections = Executors.newCachedThreadPool(runnable -> {
+            final Thread thread = new Thread(runnable, "key-service-connection");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.workers = Executors.newFixedThreadPool(parallelism, runnable -> {
+            final Thread thread = new Thread(runnable, "key-service-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.inFlight = new ConcurrentHashMap<>();
+        this.requests = new AtomicLong();
+        this.coalescedRequests = new AtomicLong();
+        this.acceptor = new Thread(this::acceptConnections, "key-service");
+    }
+
+    /**
+     * @return the port the service listens on.
+     */
+    public int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    /**
+     * @return the number of requests received.
+     */
+    public long getRequests() {
+        return requests.get();
+    }
+
+    /**
+     * @return the number of requests that were answered by a batch started
+     * by another request.
+     */
+    public long getCoalescedRequests() {
+        return coalescedRequests.get();
+    }
+
+    /**
+     * Stops accepting connections and drops the open ones.
+     *
+     * @throws IOException if the server socket fails to close.
+     */
+    @Override
+    public void close() throws IOException {
+        serverSocket.close();
+        connections.shutdownNow();
+        workers.shutdownNow();
+    }
+
+    private void acceptConnections() {
+        while (!serverSocket.isClosed()) {
+            final Socket socket;
+            try {
+                socket = serverSocket.accept();
+            }
+            catch (IOException e) {
+                return;
+            }
+            if (!connectionPermits.tryAcquire()) {
+                refuse(socket);
+                continue;
+            }
+            try {
+                connections.execute(() -> serve(socket));
+            }
+            catch (RejectedExecutionException e) {
+                // The service was closed
+                connectionPermits.release();
+                refuse(socket);
+            }
+        }
+    }
+
+    private static void refuse(Socket socket) {
+        try {
+            socket.close();
+        }
+        catch (IOException ignored) {
+            // Refused anyway
+        }
+    }
+
+    private void serve(Socket socket) {
+        try (
+            final Socket s = socket;
+            final DataInputStream in = new DataInputStream(
+                new BufferedInputStream(s.getInputStream())
+            );
+            final DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(s.getOutputStream())
+            )
+        ) {
+            byte[] frame;
+            while ((frame = KeyServiceProtocol.readFrame(in, maxFrameLength)) != null) {
+                requests.incrementAndGet();
+                KeyServiceProtocol.writeFrame(out, handle(frame));
+            }
+        }
+        catch (IOException ignored) {
+            // The client went away
+        }
+        finally {
+            connectionPermits.release();
+        }
+    }
+
+    private byte[] handle(byte[] frame) throws IOException {
+        final DataInputStream request = KeyServiceProtocol.contentOf(frame);
+        final byte operation = request.readByte();
+        try {
+            switch (operation) {
+                case KeyServiceProtocol.GENERATE:
+                    return generate(request, false);
+                case KeyServiceProtocol.GENERATE_PUBLIC:
+                    return generate(request, true);
+                case KeyServiceProtocol.OPEN:
+                    return open(request, false);
+                case KeyServiceProtocol.VALIDATE:
+                    return open(request, true);
+                default:
+                    return failure("Unknown operation " + operation);
+            }
+        }
+        catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Service stopped");
+        }
+        catch (ExecutionException e) {
+            return failure(String.valueOf(e.getCause()));
+        }
+    }
+
+    /**
+     * Generates a key, a public key is only generated when it's requested, so
+     * an empty user password of a request of a private key is rejected by the
+     * password protocol.
+     */
+    private byte[] generate(
+        DataInputStream request,
+        boolean publicKey
+    ) throws IOException,
+             InterruptedException,
+             ExecutionException {
+        final String data = KeyServiceProtocol.readString(request);
+        final String ownerKeyPassword = KeyServiceProtocol.readString(request);
+        final String userKeyPassword = publicKey
+                                       ? ""
+                                       : KeyServiceProtocol.readString(request);
+        final KeyOil oil = KeyServiceProtocol.readOil(request);
+        return workers.submit(() -> {
+            final Key key;
+            try {
+                if (publicKey) {
+                    key = MergeKeyGenerator.generatePublicKey(
+                        data,
+                        ownerKeyPassword,
+                        oil
+                    );
+                }
+                else {
+                    key = MergeKeyGenerator.generateKey(
+                        data,
+                        ownerKeyPassword,
+                        userKeyPassword,
+                        oil
+                    );
+                }
+            }
+            catch (NotAcceptedByPasswordProtocolException e) {
+                return status(KeyServiceProtocol.NOT_ACCEPTED_PASSWORD);
+            }
+            catch (UnsupportedDataKeyException e) {
+                return status(KeyServiceProtocol.UNSUPPORTED_DATA);
+            }
+            final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+                key.getSerializedLength() + 5
+            );
+            final DataOutputStream response = new DataOutputStream(baos);
+            response.writeByte(KeyServiceProtocol.OK);
+            KeyServiceProtocol.writeBytes(response, key.toOutputStream().toByteArray());
+            return baos.toByteArray();
+        }).get();
+    }
+
+    private byte[] open(
+        DataInputStream request,
+        boolean validate
+    ) throws IOException,
+             InterruptedException,
+             ExecutionException {
+        final OpenRequest openRequest = new OpenRequest(
+            KeyServiceProtocol.readBytes(request),
+            KeyServiceProtocol.readString(request),
+            KeyServiceProtocol.readString(request),
+            KeyServiceProtocol.readOil(request)
+        );
+        final OpenResult result = batchOf(openRequest).get();
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream response = new DataOutputStream(baos);
+        if (validate) {
+            response.writeByte(KeyServiceProtocol.OK);
+            response.writeBoolean(result.data != null);
+        }
+        else if (result.data != null) {
+            response.writeByte(KeyServiceProtocol.OK);
+            KeyServiceProtocol.writeString(response, result.data);
+        }
+        else {
+            response.writeByte(KeyServiceProtocol.INVALID_KEY);
+        }
+        return baos.toByteArray();
+    }
+
+    private CompletableFuture<OpenResult> batchOf(OpenRequest request) {
+        final CompletableFuture<OpenResult> batch = new CompletableFuture<>();
+        final CompletableFuture<OpenResult> current = inFlight.putIfAbsent(
+            request,
+            batch
+        );
+        if (current != null) {
+            coalescedRequests.incrementAndGet();
+            return current;
+        }
+        workers.execute(() -> {
+            // Requests arriving after the removal start a new batch, they
+            // never get a result computed before they were sent
+            try {
+                batch.complete(request.open());
+            }
+            catch (RuntimeException e) {
+                batch.completeExceptionally(e);
+            }
+            finally {
+                inFlight.remove(request, batch);
+            }
+        });
+        return batch;
+    }
+
+    private static byte[] status(byte status) {
+        return new byte[] { status };
+    }
+
+    private static byte[] failure(String message) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream response = new DataOutputStream(baos);
+        response.writeByte(KeyServiceProtocol.FAILURE);
+        KeyServiceProtocol.writeString(response, message);
+        return baos.toByteArray();
+    }
+
+    private static final class OpenRequest {
+        private final byte[] key;
+        private final String ownerKeyPassword;
+        private final String userKeyPassword;
+        private final KeyOil oil;
+        private final int hashCode;
+
+        OpenRequest(
+            byte[] key,
+            String ownerKeyPassword,
+            String userKeyPassword,
+            KeyOil oil
+        ) {
+            this.key = key;
+            this.ownerKeyPassword = ownerKeyPassword;
+            this.userKeyPassword = userKeyPassword;
+            this.oil = oil;
+            this.hashCode = Objects.hash(
+                Arrays.hashCode(key),
+                ownerKeyPassword,
+                userKeyPassword,
+                oil.getNegativeOilLength(),
+                oil.getPositiveOilLength()
+            );
+        }
+
+        OpenResult open() {
+            try {
+                return new OpenResult(MergeKeyOpener.openKey(
+                    Key.fromByteBuffer(ByteBuffer.wrap(key)),
+                    ownerKeyPassword,
+                    userKeyPassword,
+                    oil
+                ));
+            }
+            catch (InvalidKeyException e) {
+                return new OpenResult(null);
+            }
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof OpenRequest)) {
+                return false;
+            }
+            final OpenRequest other = (OpenRequest) o;
+            return hashCode == other.hashCode
+                   && ownerKeyPassword.equals(other.ownerKeyPassword)
+                   && userKeyPassword.equals(other.userKeyPassword)
+                   && oil.getNegativeOilLength() == other.oil.getNegativeOilLength()
+                   && oil.getPositiveOilLength() == other.oil.getPositiveOilLength()
+                   && Arrays.equals(key, other.key);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static final class OpenResult {
+        private final String data;
+
+        OpenResult(String data) {
+            this.data = data;
+        }
+    }
+}
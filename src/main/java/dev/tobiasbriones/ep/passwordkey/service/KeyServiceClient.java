@@ -0,0 +1,291 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.service;
+
+import dev.tobiasbriones.ep.passwordkey.NotAcceptedByPasswordProtocolException;
+import dev.tobiasbriones.ep.passwordkey.generator.InvalidKeyException;
+import dev.tobiasbriones.ep.passwordkey.generator.Key;
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyGenerator;
+import dev.tobiasbriones.ep.passwordkey.generator.MergeKeyOpener;
+import dev.tobiasbriones.ep.passwordkey.generator.UnsupportedDataKeyException;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Client of a {@link KeyService} running on the same host, its methods have
+ * the same parameters as the ones of {@link MergeKeyGenerator} and {@link
+ * MergeKeyOpener}.<br> A client holds one connection and sends one request at
+ * a time, so threads sharing a client wait for each other, use a client per
+ * thread to send concurrent requests.
+ *
+ * @author Tobias Briones
+ * @see KeyService
+ */
+public final class KeyServiceClient implements Closeable {
+    private final Socket socket;
+    private final DataInputStream in;
+    private final DataOutputStream out;
+
+    /**
+     * Connects to the service listening on the given port of the loopback
+     * interface.
+     *
+     * @param port port of the service.
+     *
+     * @throws IOException if the service can't be reached.
+     */
+    public KeyServiceClient(int port) throws IOException {
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+    }
+
+    /**
+     * See {@link MergeKeyGenerator#generatePublicKey(String, String)}.
+     */
+    public Key generatePublicKey(
+        String data,
+        String keyOwnerPassword
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        return generatePublicKey(data, keyOwnerPassword, new KeyOil(0, 0));
+    }
+
+    /**
+     * See {@link MergeKeyGenerator#generatePublicKey(String, String,
+     * KeyOil)}.
+     */
+    public Key generatePublicKey(
+        String data, String keyOwnerPassword,
+        KeyOil dimensionLengthOil
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream request = new DataOutputStream(baos);
+        request.writeByte(KeyServiceProtocol.GENERATE_PUBLIC);
+        KeyServiceProtocol.writeString(request, data);
+        KeyServiceProtocol.writeString(request, keyOwnerPassword);
+        KeyServiceProtocol.writeOil(request, dimensionLengthOil);
+        return generate(baos.toByteArray());
+    }
+
+    /**
+     * See {@link MergeKeyGenerator#generateKey(String, String, String)}.
+     */
+    public Key generateKey(
+        String data, String keyOwnerPassword,
+        String keyUserPassword
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        return generateKey(
+            data,
+            keyOwnerPassword,
+            keyUserPassword,
+            new KeyOil(0, 0)
+        );
+    }
+
+    /**
+     * See {@link MergeKeyGenerator#generateKey(String, String, String,
+     * KeyOil)}.
+     */
+    public Key generateKey(
+        String data, String keyOwnerPassword,
+        String keyUserPassword,
+        KeyOil dimensionLengthOil
+    ) throws NotAcceptedByPasswordProtocolException,
+             UnsupportedDataKeyException,
+             IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
+        final DataOutputStream request = new DataOutputStream(baos);
+        request.writeByte(KeyServiceProtocol.GENERATE);
+        KeyServiceProtocol.writeString(request, data);
+        KeyServiceProtocol.writeString(request, keyOwnerPassword);
+        KeyServiceProtocol.writeString(request, keyUserPassword);
+        KeyServiceProtocol.writeOil(request, dimensionLengthOil);
+        return generate(baos.toByteArray());
+    }
+
+    /**
+     * See {@link MergeKeyOpener#openPublicKey(Key, String)}.
+     */
+    public String openPublicKey(
+        Key key,
+        String ownerKeyPassword
+    ) throws InvalidKeyException,
+             IOException {
+        return openPublicKey(key, ownerKeyPassword, oilOf(key));
+    }
+
+    /**
+     * See {@link MergeKeyOpener#openPublicKey(Key, String, KeyOil)}.
+     */
+    public String openPublicKey(
+        Key key, String ownerKeyPassword,
+        KeyOil dimensionLengthOil
+    ) throws InvalidKeyException,
+             IOException {
+        return openKey(key, ownerKeyPassword, "", dimensionLengthOil);
+    }
+
+    /**
+     * See {@link MergeKeyOpener#openKey(Key, String, String)}.
+     */
+    public String openKey(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword
+    ) throws InvalidKeyException,
+             IOException {
+        return openKey(key, ownerKeyPassword, userKeyPassword, oilOf(key));
+    }
+
+    /**
+     * See {@link MergeKeyOpener#openKey(Key, String, String, KeyOil)}.
+     */
+    public String openKey(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil
+    ) throws InvalidKeyException,
+             IOException {
+        final DataInputStream response = send(openRequest(
+            KeyServiceProtocol.OPEN,
+            key,
+            ownerKeyPassword,
+            userKeyPassword,
+            dimensionLengthOil
+        ));
+        switch (response.readByte()) {
+            case KeyServiceProtocol.OK:
+                return KeyServiceProtocol.readString(response);
+            case KeyServiceProtocol.INVALID_KEY:
+                throw new InvalidKeyException();
+            default:
+                throw failureOf(response);
+        }
+    }
+
+    /**
+     * Checks whether the key opens with the given credentials without
+     * sending its data back.
+     *
+     * @param key                a key to be checked.
+     * @param ownerKeyPassword   owner password.
+     * @param userKeyPassword    user password, empty for public keys.
+     * @param dimensionLengthOil oil which the key was generate it.
+     *
+     * @return {@code true} if and only if the key opens with the given
+     * credentials.
+     *
+     * @throws IOException if the service fails.
+     */
+    public boolean isValidKey(
+        Key key, String ownerKeyPassword,
+        String userKeyPassword, KeyOil dimensionLengthOil
+    ) throws IOException {
+        final DataInputStream response = send(openRequest(
+            KeyServiceProtocol.VALIDATE,
+            key,
+            ownerKeyPassword,
+            userKeyPassword,
+            dimensionLengthOil
+        ));
+        if (response.readByte() != KeyServiceProtocol.OK) {
+            throw failureOf(response);
+        }
+        return response.readBoolean();
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    private Key generate(byte[] request) throws NotAcceptedByPasswordProtocolException,
+                                                UnsupportedDataKeyException,
+                                                IOException {
+        final DataInputStream response = send(request);
+        switch (response.readByte()) {
+            case KeyServiceProtocol.OK:
+                try {
+                    return Key.fromByteBuffer(
+                        ByteBuffer.wrap(KeyServiceProtocol.readBytes(response))
+                    );
+                }
+                catch (InvalidKeyException e) {
+                    throw new IOException("Malformed response", e);
+                }
+            case KeyServiceProtocol.NOT_ACCEPTED_PASSWORD:
+                throw new NotAcceptedByPasswordProtocolException();
+            case KeyServiceProtocol.UNSUPPORTED_DATA:
+                throw new UnsupportedDataKeyException();
+            default:
+                throw failureOf(response);
+        }
+    }
+
+    private synchronized DataInputStream send(byte[] request) throws IOException {
+        final byte[] response;
+        KeyServiceProtocol.writeFrame(out, request);
+        // Responses come from the service, which is trusted
+        response = KeyServiceProtocol.readFrame(in, KeyServiceProtocol.MAX_FRAME_LENGTH);
+        if (response == null) {
+            throw new EOFException("The service closed the connection");
+        }
+        return KeyServiceProtocol.contentOf(response);
+    }
+
+    private static byte[] openRequest(
+        byte operation,
+        Key key,
+        String ownerKeyPassword,
+        String userKeyPassword,
+        KeyOil dimensionLengthOil
+    ) throws IOException {
+        final ByteArrayOutputStream baos = new ByteArrayOutputStream(
+            key.getSerializedLength() + 64
+        );
+        final DataOutputStream request = new DataOutputStream(baos);
+        request.writeByte(operation);
+        KeyServiceProtocol.writeBytes(request, key.toOutputStream().toByteArray());
+        KeyServiceProtocol.writeString(request, ownerKeyPassword);
+        KeyServiceProtocol.writeString(request, userKeyPassword);
+        KeyServiceProtocol.writeOil(request, dimensionLengthOil);
+        return baos.toByteArray();
+    }
+
+    /**
+     * @return the oil the key was generated with, as {@link MergeKeyOpener}
+     * does when no oil is given.
+     */
+    private static KeyOil oilOf(Key key) {
+        return (key.getHeader() == null) ? new KeyOil(0, 0) : key.getHeader().getOil();
+    }
+
+    private static IOException failureOf(DataInputStream response) throws IOException {
+        return new IOException("Service failure: " + KeyServiceProtocol.readString(response));
+    }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.service;
+
+import dev.tobiasbriones.ep.passwordkey.generator.KeyOil;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Framing of the messages exchanged by {@link KeyService} and {@link
+ * KeyServiceClient}.<br> Every message is a frame made of its length as a
+ * 4-byte big-endian integer followed by its content. A request starts with
+ * its operation and a response starts with its status, strings and byte
+ * arrays are written as their length followed by their bytes.
+ *
+ * @author Tobias Briones
+ */
+final class KeyServiceProtocol {
+    static final byte GENERATE = 1;
+    static final byte OPEN = 2;
+    static final byte VALIDATE = 3;
+    static final byte GENERATE_PUBLIC = 4;
+    static final byte OK = 0;
+    static final byte INVALID_KEY = 1;
+    static final byte NOT_ACCEPTED_PASSWORD = 2;
+    static final byte UNSUPPORTED_DATA = 3;
+    static final byte FAILURE = 4;
+    /**
+     * Maximum length of a frame that fits in an array.
+     */
+    static final int MAX_FRAME_LENGTH = Integer.MAX_VALUE - 8;
+    private static final int FRAME_CHUNK_LENGTH = 64 * 1024;
+
+    /**
+     * Reads the next frame, a frame longer than the given maximum is rejected
+     * before reading it. The frame grows as its content arrives, so a length
+     * that isn't followed by its content doesn't allocate it.
+     *
+     * @return the content of the next frame or {@code null} if the stream
+     * ended before it.
+     */
+    static byte[] readFrame(DataInputStream in, int maxFrameLength) throws IOException {
+        final int length;
+        byte[] frame;
+        try {
+            length = in.readInt();
+        }
+        catch (EOFException e) {
+            return null;
+        }
+        if (length < 0 || length > maxFrameLength) {
+            throw new IOException("Invalid frame length " + length);
+        }
+        frame = new byte[Math.min(length, FRAME_CHUNK_LENGTH)];
+        for (int read = 0; read < length; read = frame.length) {
+            if (read == frame.length) {
+                frame = Arrays.copyOf(frame, (int) Math.min(length, 2L * read));
+            }
+            in.readFully(frame, read, frame.length - read);
+        }
+        return frame;
+    }
+
+    static void writeFrame(DataOutputStream out, byte[] frame) throws IOException {
+        out.writeInt(frame.length);
+        out.write(frame);
+        out.flush();
+    }
+
+    static DataInputStream contentOf(byte[] frame) {
+        return new DataInputStream(new ByteArrayInputStream(frame));
+    }
+
+    static byte[] readBytes(DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        final byte[] bytes;
+        if (length < 0 || length > in.available()) {
+            throw new IOException("Invalid field length " + length);
+        }
+        bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    static String readString(DataInputStream in) throws IOException {
+        return new String(readBytes(in), StandardCharsets.UTF_8);
+    }
+
+    static void writeString(DataOutputStream out, String string) throws IOException {
+        writeBytes(out, string.getBytes(StandardCharsets.UTF_8));
+    }
+
+    static KeyOil readOil(DataInputStream in) throws IOException {
+        final int negativeOilLength = in.readInt();
+        final int positiveOilLength = in.readInt();
+        if (negativeOilLength < 0 || positiveOilLength < 0) {
+            throw new IOException("Invalid oil");
+        }
+        return new KeyOil(negativeOilLength, positiveOilLength);
+    }
+
+    static void writeOil(DataOutputStream out, KeyOil oil) throws IOException {
+        out.writeInt(oil.getNegativeOilLength());
+        out.writeInt(oil.getPositiveOilLength());
+    }
+
+    private KeyServiceProtocol() {}
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.simd;
+
+/**
+ * Scalar implementation of {@link TextScan}, it's the one used on Java 8 and
+ * the reference of the vectorized one.
+ *
+ * @author Tobias Briones
+ */
+final class ScalarTextScan {
+    static int textClass(byte[] data, int from, int to) {
+        boolean hasLetters = false;
+        boolean hasOthers = false;
+        if (from == to) {
+            return TextScan.ANY;
+        }
+        for (int i = from; i < to; i++) {
+            final int b = data[i];
+            if (b < 0x20 || b > 0x7E) {
+                return TextScan.ANY;
+            }
+            if (b >= 'a' && b <= 'z' || b >= 'A' && b <= 'Z') {
+                hasLetters = true;
+            }
+            else if (b < '0' || b > '9') {
+                hasOthers = true;
+            }
+        }
+        return classOf(hasLetters, hasOthers);
+    }
+
+    static int classOf(boolean hasLetters, boolean hasOthers) {
+        if (hasOthers) {
+            return TextScan.PRINTABLE;
+        }
+        if (hasLetters) {
+            return TextScan.ALPHANUMERIC;
+        }
+        return TextScan.DIGITS;
+    }
+
+    static int longestRun(char[] chars, char before) {
+        char previous = before;
+        int run = 1;
+        int longest = 0;
+        for (char c : chars) {
+            if (c == previous) {
+                run++;
+            }
+            else {
+                run = 1;
+            }
+            longest = Math.max(longest, run);
+            previous = c;
+        }
+        return longest;
+    }
+
+    static void stridedCopy(
+        char[] source,
+        int first,
+        int stride,
+        char[] destination,
+        int count
+    ) {
+        if (stride == 1) {
+            System.arraycopy(source, first, destination, 0, count);
+            return;
+        }
+        int cursor = first;
+        for (int i = 0; i < count; i++) {
+            destination[i] = source[cursor];
+            cursor += stride;
+        }
+    }
+
+    private ScalarTextScan() {}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.simd;
+
+/**
+ * Tight loops over texts: the classification of the symbols of the data, the
+ * detection of runs of repeated characters in passwords and the extraction
+ * of the data characters from a dimension.<br> This is the scalar version,
+ * the multi-release JAR replaces this class on Java 17 or later with one that
+ * classifies the symbols on the Vector API when the {@code
+ * jdk.incubator.vector} module is added to the JVM.
+ *
+ * @author Tobias Briones
+ */
+public final class TextScan {
+    /**
+     * Class of a text made only of digits.
+     */
+    public static final int DIGITS = 0;
+
+    /**
+     * Class of a text made only of digits and ASCII letters.
+     */
+    public static final int ALPHANUMERIC = 1;
+
+    /**
+     * Class of a text made only of printable ASCII characters.
+     */
+    public static final int PRINTABLE = 2;
+
+    /**
+     * Class of any other text, including the empty one.
+     */
+    public static final int ANY = 3;
+
+    /**
+     * @return {@code true} if and only if the classification runs on the Vector API.
+     */
+    public static boolean isVectorized() {
+        return false;
+    }
+
+    /**
+     * @param data bytes of a text.
+     *
+     * @return the narrowest class of the text.
+     */
+    public static int textClass(byte[] data) {
+        return ScalarTextScan.textClass(data, 0, data.length);
+    }
+
+    /**
+     * @param chars  characters to scan.
+     * @param before character considered to be right before the first one.
+     *
+     * @return the length of the longest run of equal consecutive characters,
+     * a run at the start includes {@code before} if it's equal to the first
+     * character.
+     */
+    public static int longestRun(char[] chars, char before) {
+        return ScalarTextScan.longestRun(chars, before);
+    }
+
+    /**
+     * Copies {@code count} characters from the source, taking one every
+     * {@code stride} characters from {@code first}.
+     *
+     * @param source      characters to copy from.
+     * @param first       index of the first character to copy.
+     * @param stride      distance between the copied characters.
+     * @param destination array the characters are copied to from index 0.
+     * @param count       number of characters to copy.
+     */
+    public static void stridedCopy(
+        char[] source,
+        int first,
+        int stride,
+        char[] destination,
+        int count
+    ) {
+        ScalarTextScan.stridedCopy(source, first, stride, destination, count);
+    }
+
+    private TextScan() {}
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.simd;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Measures the scans of {@link TextScan} against their scalar version on the
+ * same inputs, so the speedup of the Vector API can be checked on the running
+ * JVM and CPU.<br> Every scan is run a number of times before measuring to
+ * let the JIT compile it, the result is the mean time per scan.
+ *
+ * @author Tobias Briones
+ * @see TextScan
+ */
+public final class TextScanBenchmark {
+    private static final String ALPHANUMERIC_SYMBOLS =
+        "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz";
+    private static final int STRIDE = 3;
+    private final int length;
+    private final int iterations;
+    private final byte[] text;
+    private final char[] password;
+    private final char[] dimension;
+    private final char[] data;
+    private long sink;
+
+    /**
+     * @param length     length of the scanned inputs.
+     * @param iterations times every scan is run, half of them are warm-up.
+     */
+    public TextScanBenchmark(int length, int iterations) {
+        if (length <= 0 || iterations <= 1) {
+            throw new IllegalArgumentException("Invalid benchmark size");
+        }
+        final Random random = new Random(length);
+        this.length = length;
+        this.iterations = iterations;
+        this.text = new byte[length];
+        this.password = new char[length];
+        this.dimension = new char[length * STRIDE];
+        this.data = new char[length];
+        for (int i = 0; i < length; i++) {
+            text[i] = (byte) ALPHANUMERIC_SYMBOLS.charAt(random.nextInt(ALPHANUMERIC_SYMBOLS.length()));
+            password[i] = (char) text[i];
+        }
+        for (int i = 0; i < dimension.length; i++) {
+            dimension[i] = (char) random.nextInt(Character.MAX_VALUE + 1);
+        }
+        this.sink = 0;
+    }
+
+    /**
+     * @return a table with the nanoseconds per scan of both versions.
+     */
+    public String run() {
+        final StringBuilder report = new StringBuilder();
+        report.append(String.format(
+            Locale.ROOT,
+            "length %d, vectorized %b%n%-12s %12s %12s %8s%n",
+            length,
+            TextScan.isVectorized(),
+            "scan",
+            "scalar ns",
+            "TextScan ns",
+            "speedup"
+        ));
+        appendRow(report, "textClass", measure(() -> {
+            sink += ScalarTextScan.textClass(text, 0, text.length);
+        }), measure(() -> {
+            sink += TextScan.textClass(text);
+        }));
+        appendRow(report, "longestRun", measure(() -> {
+            sink += ScalarTextScan.longestRun(password, (char) 0);
+        }), measure(() -> {
+            sink += TextScan.longestRun(password, (char) 0);
+        }));
+        appendRow(report, "stridedCopy", measure(() -> {
+            ScalarTextScan.stridedCopy(dimension, 1, STRIDE, data, length);
+            sink += data[length - 1];
+        }), measure(() -> {
+            TextScan.stridedCopy(dimension, 1, STRIDE, data, length);
+            sink += data[length - 1];
+        }));
+        return report.toString();
+    }
+
+    private double measure(Runnable scan) {
+        final int warmup = iterations / 2;
+        final long start;
+        for (int i = 0; i < warmup; i++) {
+            scan.run();
+        }
+        start = System.nanoTime();
+        for (int i = warmup; i < iterations; i++) {
+            scan.run();
+        }
+        return (System.nanoTime() - start) / (double) (iterations - warmup);
+    }
+
+    private static void appendRow(
+        StringBuilder report,
+        String name,
+        double scalarNanos,
+        double scanNanos
+    ) {
+        report.append(String.format(
+            Locale.ROOT,
+            "%-12s %12.1f %12.1f %7.2fx%n",
+            name,
+            scalarNanos,
+            scanNanos,
+            scalarNanos / Math.max(scanNanos, 1e-3)
+        ));
+    }
+}
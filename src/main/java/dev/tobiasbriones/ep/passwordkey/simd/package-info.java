@@ -0,0 +1,19 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+/**
+ * Provides the scans over large texts used by the password rules and the key
+ * dimensions, with a vectorized version in the multi-release JAR.
+ *
+ * @author Tobias Briones
+ */
+package dev.tobiasbriones.ep.passwordkey.simd;
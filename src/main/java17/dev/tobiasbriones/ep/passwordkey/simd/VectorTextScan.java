@@ -0,0 +1,74 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.simd;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Scans of {@link TextScan} on the Vector API, they return exactly what
+ * {@link ScalarTextScan} returns. The tails that don't fill a vector are
+ * scanned by the scalar code.
+ *
+ * @author Tobias Briones
+ */
+final class VectorTextScan {
+    private static final VectorSpecies<Byte> BYTES = ByteVector.SPECIES_PREFERRED;
+
+    static int textClass(byte[] data) {
+        final int bound = BYTES.loopBound(data.length);
+        boolean hasLetters = false;
+        boolean hasOthers = false;
+        int i = 0;
+        if (data.length == 0) {
+            return TextScan.ANY;
+        }
+        for (; i < bound; i += BYTES.length()) {
+            final ByteVector v = ByteVector.fromArray(BYTES, data, i);
+            // Bytes are signed, so the ones over 0x7F are below 0x20 too
+            if (v.compare(VectorOperators.LT, (byte) 0x20)
+                 .or(v.compare(VectorOperators.GT, (byte) 0x7E))
+                 .anyTrue()) {
+                return TextScan.ANY;
+            }
+            if (hasOthers) {
+                continue;
+            }
+            final VectorMask<Byte> digits = inRange(v, '0', '9');
+            final VectorMask<Byte> letters = inRange(v, 'A', 'Z').or(inRange(v, 'a', 'z'));
+            if (!digits.or(letters).allTrue()) {
+                hasOthers = true;
+            }
+            else if (letters.anyTrue()) {
+                hasLetters = true;
+            }
+        }
+        if (i == data.length) {
+            return ScalarTextScan.classOf(hasLetters, hasOthers);
+        }
+        final int tail = ScalarTextScan.textClass(data, i, data.length);
+        if (tail == TextScan.ANY) {
+            return TextScan.ANY;
+        }
+        return Math.max(tail, ScalarTextScan.classOf(hasLetters, hasOthers));
+    }
+
+    private static VectorMask<Byte> inRange(ByteVector v, char low, char high) {
+        return v.compare(VectorOperators.GE, (byte) low)
+                .and(v.compare(VectorOperators.LE, (byte) high));
+    }
+
+    private VectorTextScan() {}
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+/**
+ * Checks the optimized paths against the reference ones: the parallel
+ * dimension against the sequential one, the streamed keys against the keys
+ * generated in memory, and the keys of version {@link
+ * Key#VERSION_TEXT_DIMENSION} saved by the first implementation.<br> The
+ * streamed keys consume the randomness in other chunks, so they are compared
+ * by the data they open to and not byte by byte.
+ *
+ * @author Tobias Briones
+ */
+final class DimensionEquivalenceTest {
+    private static final String OWNER = "ownerpass1";
+    private static final String USER = "userpass12";
+    private static final String PRIVATE_DATA = "{\"user\":\"tobias\",\"pass\":\"áé 日本 secret-value-123\"}";
+    private static final String PUBLIC_DATA = "12345678901234567890";
+
+    private static String largeData(Random random) {
+        final StringBuilder data = new StringBuilder();
+        while (data.length() < 200_000) {
+            data.append(FuzzInputs.data(random, 300));
+        }
+        return data.toString();
+    }
+
+    private static Key fixture(String name) throws Exception {
+        try (InputStream is = DimensionEquivalenceTest.class.getResourceAsStream(name + ".key")) {
+            assertNotNull(is, name);
+            return Key.fromInputStream(is);
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        RandomnessProvider.useSeeded(FuzzInputs.SEED);
+    }
+
+    @AfterEach
+    void tearDown() {
+        RandomnessProvider.useSecure();
+    }
+
+    @Test
+    void parallelRetrievalIsSequentialRetrieval() {
+        for (int i = 0; i < FuzzInputs.KEYS; i++) {
+            final Random random = FuzzInputs.of(i);
+            final byte[] data = largeData(random).getBytes(StandardCharsets.UTF_8);
+            final KeyOil oil = new KeyOil(1 + random.nextInt(40), 1 + random.nextInt(40));
+            final DimensionLayout layout = DimensionLayout.of(oil, false);
+            final int offset = random.nextInt(64);
+            final byte[] dimension = new byte[offset + (int) layout.lengthOf(data.length)];
+            final byte[] sequential = new byte[data.length];
+            final byte[] parallel = new byte[data.length];
+
+            ParallelDimension.generate(data, layout, Core.getTextType(data), dimension, offset);
+            ByteDimension.read(ByteBuffer.wrap(dimension), offset, layout, sequential, 0, data.length);
+            ParallelDimension.retrieveData(ByteBuffer.wrap(dimension), offset, layout, parallel);
+
+            assertArrayEquals(data, sequential, FuzzInputs.describe(i));
+            assertArrayEquals(sequential, parallel, FuzzInputs.describe(i));
+        }
+    }
+
+    @Test
+    void streamedKeyIsInMemoryKey() throws Exception {
+        final Random random = FuzzInputs.of(0);
+        final String data = largeData(random);
+        final KeyOil oil = new KeyOil(12, 12);
+        final KeyPlan plan = KeyPlan.of(data, oil);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MergeKeyGenerator.writeKey(data, OWNER, USER, oil, os);
+        final Key streamed = Key.fromInputStream(new ByteArrayInputStream(os.toByteArray()));
+        final Key inMemory = MergeKeyGenerator.generateKey(data, OWNER, USER, oil);
+
+        for (Key key : new Key[] { streamed, inMemory }) {
+            assertEquals(plan.getDimensionLength(), key.getHeader().getDimensionLength());
+            assertEquals(plan.getDataLength(), key.getHeader().getDataLength());
+            assertEquals(plan.getSerializedLength(), key.getSerializedLength());
+            assertEquals(FuzzInputs.opened(data), MergeKeyOpener.openKey(key, OWNER, USER, oil));
+        }
+    }
+
+    @Test
+    void textDimensionKeysOpen() throws Exception {
+        final int[][] oils = { { 0, 0 }, { 5, 3 }, { 300, 120 } };
+
+        for (int[] oil : oils) {
+            final String name = oil[0] + "-" + oil[1];
+            final KeyOil keyOil = new KeyOil(oil[0], oil[1]);
+
+            assertEquals(
+                PRIVATE_DATA,
+                MergeKeyOpener.openKey(fixture("v1-" + name), OWNER, USER, keyOil),
+                name
+            );
+            assertEquals(
+                PUBLIC_DATA,
+                MergeKeyOpener.openPublicKey(fixture("v1-public-" + name), OWNER, keyOil),
+                name
+            );
+        }
+    }
+}
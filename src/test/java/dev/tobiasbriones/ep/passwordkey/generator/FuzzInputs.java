@@ -0,0 +1,94 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import dev.tobiasbriones.ep.passwordkey.PasswordProtocol;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Random inputs of the fuzz tests, the same seed gives the same inputs.<br>
+ * The seed is taken from {@code -Dfuzz.seed} to reproduce a failure, and the
+ * number of keys per test from {@code -Dfuzz.keys}.
+ *
+ * @author Tobias Briones
+ */
+final class FuzzInputs {
+    static final long SEED = Long.getLong("fuzz.seed", System.nanoTime());
+    static final int KEYS = Integer.getInteger("fuzz.keys", 12);
+    private static final String PASSWORD_SYMBOLS =
+        "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ0123456789!#$%&*+-.:;=?@_~ñé";
+    private static final int[][] CODE_POINT_RANGES = {
+        { 0x20, 0x7E },
+        { 0xA0, 0x7FF },
+        { 0x800, 0xD7FF },
+        { 0xE000, 0xFFFD },
+        { 0x10000, 0x10FFFF },
+        // Lone surrogates, they are stored as '?'
+        { 0xD800, 0xDFFF }
+    };
+
+    /**
+     * @return the inputs of the given case of the test, the message of a
+     * failure should include {@link #describe(int)}.
+     */
+    static Random of(int testCase) {
+        return new Random(SEED * 31 + testCase);
+    }
+
+    static String describe(int testCase) {
+        return "case " + testCase + " of -Dfuzz.seed=" + SEED;
+    }
+
+    static String data(Random random, int maxLength) {
+        final StringBuilder data = new StringBuilder();
+        final int length = random.nextInt(maxLength + 1);
+        final int ranges = 1 + random.nextInt(CODE_POINT_RANGES.length);
+        while (data.length() < length) {
+            final int[] range = CODE_POINT_RANGES[random.nextInt(ranges)];
+            data.appendCodePoint(range[0] + random.nextInt(range[1] - range[0] + 1));
+        }
+        return data.toString();
+    }
+
+    /**
+     * @return the data that opens from a key generated with the given data,
+     * lone surrogates are replaced by the UTF-8 encoder.
+     */
+    static String opened(String data) {
+        return new String(data.getBytes(StandardCharsets.UTF_8), StandardCharsets.UTF_8);
+    }
+
+    static String password(Random random) {
+        String password;
+        do {
+            final char[] chars = new char[PasswordProtocol.MIN_PASSWORD_LENGTH + random.nextInt(16)];
+            for (int i = 0; i < chars.length; i++) {
+                chars[i] = PASSWORD_SYMBOLS.charAt(random.nextInt(PASSWORD_SYMBOLS.length()));
+            }
+            password = new String(chars);
+        }
+        while (!PasswordProtocol.isAcceptedPassword(password));
+        return password;
+    }
+
+    static KeyOil oil(Random random) {
+        // Mostly small oil, with the lengths of 0 and 1 that can't be reduced
+        // and the secure level of the user password once in a while
+        final int bound = (random.nextInt(8) == 0) ? 6000 : 48;
+        return new KeyOil(random.nextInt(bound), random.nextInt(bound));
+    }
+
+    private FuzzInputs() {}
+}
@@ -0,0 +1,198 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * Round-trips random data, oil and passwords through {@link
+ * MergeKeyGenerator} and {@link MergeKeyOpener} from many threads at the same
+ * time.<br> The inputs of every case come from {@link FuzzInputs}, the
+ * number of threads is set with {@code -Dfuzz.threads}, with one thread the
+ * keys are also the same byte by byte for the same seed.
+ *
+ * @author Tobias Briones
+ */
+final class KeyRoundTripFuzzTest {
+    private static final int THREADS = Integer.getInteger(
+        "fuzz.threads",
+        Runtime.getRuntime().availableProcessors()
+    );
+    private static final int MAX_DATA_LENGTH = 300;
+
+    private static void runConcurrently(int cases, FuzzCase fuzzCase) throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            final List<Future<?>> results = new ArrayList<>(cases);
+            for (int i = 0; i < cases; i++) {
+                final int testCase = i;
+                results.add(executor.submit(() -> {
+                    try {
+                        fuzzCase.run(testCase);
+                    }
+                    catch (Throwable e) {
+                        throw new AssertionError(FuzzInputs.describe(testCase), e);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> result : results) {
+                result.get();
+            }
+        }
+        finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static void roundTrip(int testCase) throws Exception {
+        final Random random = FuzzInputs.of(testCase);
+        final int generator = random.nextInt(4);
+        final String data = FuzzInputs.data(random, MAX_DATA_LENGTH);
+        final String owner = FuzzInputs.password(random);
+        final String otherOwner = FuzzInputs.password(random);
+        final KeyOil oil = FuzzInputs.oil(random);
+        final String user = random.nextBoolean() ? FuzzInputs.password(random) : "";
+        final Key key = reload(generate(generator, data, owner, otherOwner, user, oil));
+        final String expected = FuzzInputs.opened(data);
+
+        assertEquals(oil, key.getHeader().getOil());
+        assertEquals(expected, MergeKeyOpener.openKey(key, owner, user, oil));
+        assertEquals(expected, MergeKeyOpener.openKey(key, owner, user));
+
+        final int from = random.nextInt(expected.length() + 1);
+        final int to = from + random.nextInt(expected.length() - from + 1);
+        assertEquals(
+            expected.substring(from, to),
+            MergeKeyOpener.openRange(key, owner, user, oil, from, to)
+        );
+
+        final byte[] bytes = data.getBytes(StandardCharsets.UTF_8);
+        final int byteFrom = random.nextInt(bytes.length + 1);
+        final int byteTo = byteFrom + random.nextInt(bytes.length - byteFrom + 1);
+        assertArrayEquals(
+            Arrays.copyOfRange(bytes, byteFrom, byteTo),
+            MergeKeyOpener.openByteRange(key, owner, user, oil, byteFrom, byteTo)
+        );
+
+        if (random.nextInt(4) == 0) {
+            final String wrongOwner = FuzzInputs.password(random);
+            assertThrows(
+                InvalidKeyException.class,
+                () -> MergeKeyOpener.openKey(key, wrongOwner, user, oil)
+            );
+        }
+        if (!user.isEmpty() && random.nextInt(4) == 0) {
+            final String wrongUser = FuzzInputs.password(random);
+            assertThrows(
+                InvalidKeyException.class,
+                () -> MergeKeyOpener.openKey(key, owner, wrongUser, oil)
+            );
+        }
+    }
+
+    private static Key generate(
+        int generator,
+        String data,
+        String owner,
+        String otherOwner,
+        String user,
+        KeyOil oil
+    ) throws Exception {
+        final List<String> owners = Arrays.asList(otherOwner, owner);
+        switch (generator) {
+            case 0:
+                return user.isEmpty()
+                       ? MergeKeyGenerator.generatePublicKey(data, owner, oil)
+                       : MergeKeyGenerator.generateKey(data, owner, user, oil);
+            case 1:
+                return user.isEmpty()
+                       ? MergeKeyGenerator.generateSharedPublicKey(data, owners, oil)
+                       : MergeKeyGenerator.generateSharedKey(data, owners, user, oil);
+            case 2:
+                // Only keys of version 3 have many owners
+                return MergeKeyGenerator.addOwner(
+                    MergeKeyGenerator.upgradeKey(
+                        generate(0, data, otherOwner, owner, user, oil),
+                        otherOwner,
+                        user,
+                        oil
+                    ),
+                    otherOwner,
+                    owner
+                );
+            default:
+                return writeKey(data, owner, user, oil);
+        }
+    }
+
+    private static Key writeKey(String data, String owner, String user, KeyOil oil)
+        throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MergeKeyGenerator.writeKey(data, owner, user, oil, os);
+        return Key.fromInputStream(new ByteArrayInputStream(os.toByteArray()));
+    }
+
+    private static Key reload(Key key) throws Exception {
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        key.writeTo(os);
+        return Key.fromInputStream(new ByteArrayInputStream(os.toByteArray()));
+    }
+
+    @BeforeEach
+    void setUp() {
+        RandomnessProvider.useSeeded(FuzzInputs.SEED);
+    }
+
+    @AfterEach
+    void tearDown() {
+        OpenedKeyCache.disable();
+        RandomnessProvider.useSecure();
+    }
+
+    @Test
+    void keysRoundTripConcurrently() throws Exception {
+        runConcurrently(FuzzInputs.KEYS, KeyRoundTripFuzzTest::roundTrip);
+    }
+
+    @Test
+    void keysRoundTripConcurrentlyWithCache() throws Exception {
+        OpenedKeyCache.configure(
+            FuzzInputs.KEYS / 2 + 1,
+            60_000,
+            OpenedKeyCache.Eviction.LEAST_RECENTLY_USED
+        );
+        runConcurrently(FuzzInputs.KEYS, KeyRoundTripFuzzTest::roundTrip);
+    }
+
+    private interface FuzzCase {
+        void run(int testCase) throws Exception;
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * Copyright (c) 2022 Tobias Briones. All rights reserved.
+ *
+ * SPDX-License-Identifier: MIT
+ *
+ * This file is part of Example Project: Password Key.
+ *
+ * This source code is licensed under the MIT License found in the LICENSE file
+ * in the root directory of this source tree or at
+ * https://opensource.org/licenses/MIT.
+ */
+
+package dev.tobiasbriones.ep.passwordkey.generator;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Checks that the seeded mode of {@link RandomnessProvider} reproduces keys
+ * byte by byte, including the ones whose dimension is generated in parallel,
+ * and that its clock drives {@link OpenedKeyCache}.
+ *
+ * @author Tobias Briones
+ */
+final class SeededRandomnessTest {
+    private static final String OWNER = "owner-password-1";
+    private static final String USER = "user-password-1";
+
+    private static byte[] generate(long seed, String data, KeyOil oil) throws Exception {
+        RandomnessProvider.useSeeded(seed);
+        final ByteArrayOutputStream os = new ByteArrayOutputStream();
+        MergeKeyGenerator.generateKey(data, OWNER, USER, oil).writeTo(os);
+        return os.toByteArray();
+    }
+
+    @AfterEach
+    void tearDown() {
+        OpenedKeyCache.disable();
+        RandomnessProvider.useSecure();
+    }
+
+    @Test
+    void sameSeedGeneratesSameKey() throws Exception {
+        final Random random = FuzzInputs.of(0);
+        final String data = FuzzInputs.data(random, 300);
+        final KeyOil oil = FuzzInputs.oil(random);
+        final byte[] key = generate(FuzzInputs.SEED, data, oil);
+
+        assertArrayEquals(key, generate(FuzzInputs.SEED, data, oil), FuzzInputs.describe(0));
+        assertFalse(
+            Arrays.equals(key, generate(FuzzInputs.SEED + 1, data, oil)),
+            FuzzInputs.describe(0)
+        );
+    }
+
+    @Test
+    void sameSeedGeneratesSameParallelDimension() throws Exception {
+        final StringBuilder data = new StringBuilder();
+        final Random random = FuzzInputs.of(1);
+        while (data.length() < 200_000) {
+            data.append(FuzzInputs.data(random, 300));
+        }
+        final KeyOil oil = new KeyOil(12, 12);
+
+        assertTrue(
+            KeyPlan.of(data.toString(), oil).getDataDimensionLength()
+            >= ParallelDimension.PARALLEL_THRESHOLD
+        );
+        assertArrayEquals(
+            generate(FuzzInputs.SEED, data.toString(), oil),
+            generate(FuzzInputs.SEED, data.toString(), oil),
+            FuzzInputs.describe(1)
+        );
+    }
+
+    @Test
+    void seededClockExpiresCachedKeys() throws Exception {
+        final AtomicLong clock = new AtomicLong();
+        final KeyOil oil = new KeyOil(3, 5);
+        RandomnessProvider.useSeeded(FuzzInputs.SEED, clock::get);
+        OpenedKeyCache.configure(4, 1000, OpenedKeyCache.Eviction.LEAST_RECENTLY_USED);
+        final OpenedKeyCache cache = OpenedKeyCache.get();
+        final Key key = MergeKeyGenerator.generateKey("data", OWNER, USER, oil);
+
+        assertEquals("data", MergeKeyOpener.openKey(key, OWNER, USER, oil));
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(999));
+        assertEquals("data", MergeKeyOpener.openKey(key, OWNER, USER, oil));
+        assertEquals(1, cache.getHits());
+
+        clock.addAndGet(TimeUnit.MILLISECONDS.toNanos(2));
+        assertEquals("data", MergeKeyOpener.openKey(key, OWNER, USER, oil));
+        assertEquals(1, cache.getExpirations());
+        assertEquals(2, cache.getMisses());
+    }
+}